@@ -0,0 +1,90 @@
+package delight.scheduler.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import delight.async.AsyncCommon;
+import delight.async.Operation;
+import delight.async.callbacks.ValueCallback;
+import delight.async.jre.Async;
+import delight.concurrency.Concurrency;
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.concurrency.schedule.Step;
+import delight.functional.Success;
+import delight.scheduler.BetterAccessThreadImplementation;
+import delight.scheduler.WorkQueueFactory;
+import delight.scheduler.WorkQueues;
+import delight.scheduler.jre.MpscQueue;
+
+/**
+ * Measures <code>offer -> startIfRequired -> run</code> of a
+ * {@link BetterAccessThreadImplementation} shared by all producer threads.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AccessThreadBenchmark {
+
+    /**
+     * <code>threadSafe</code> uses the general purpose queue of the
+     * concurrency implementation, <code>mpsc</code> the {@link MpscQueue}.
+     */
+    @Param({ "threadSafe", "mpsc" })
+    public String queue;
+
+    private BetterAccessThreadImplementation accessThread;
+
+    @State(Scope.Thread)
+    public static class Producer implements Step {
+        final Completion<Success> completion = new Completion<Success>();
+
+        @Override
+        public void process() {
+            completion.onSuccess(Success.INSTANCE);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Concurrency concurrency = ConcurrencyJre.create();
+        final WorkQueueFactory queueFactory = "mpsc".equals(queue) ? MpscQueue.factory()
+                : WorkQueues.threadSafe(concurrency);
+        accessThread = new BetterAccessThreadImplementation(concurrency, null, queueFactory);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Async.waitFor(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                accessThread.shutdown(AsyncCommon.asSimpleCallback(callback));
+            }
+        });
+    }
+
+    @Benchmark
+    public void offerAndProcess(final Producer producer) {
+        producer.completion.reset();
+        accessThread.offer(producer);
+        accessThread.startIfRequired();
+        producer.completion.await();
+    }
+
+}
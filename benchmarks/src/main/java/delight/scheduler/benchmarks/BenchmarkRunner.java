@@ -0,0 +1,36 @@
+package delight.scheduler.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs all scheduler benchmarks with the GC profiler for 1, 2, 4 ... N
+ * producer threads.
+ * <p>
+ * Usage:
+ * <code>java -cp target/benchmarks.jar delight.scheduler.benchmarks.BenchmarkRunner [maxThreads] [includeRegex]</code>
+ */
+public class BenchmarkRunner {
+
+    public static void main(final String[] args) throws RunnerException {
+        final int maxThreads = args.length > 0 ? Integer.parseInt(args[0])
+                : Runtime.getRuntime().availableProcessors();
+        final String include = args.length > 1 ? args[1] : "delight.scheduler.benchmarks.*";
+
+        int threads = 1;
+        while (true) {
+            final Options options = new OptionsBuilder().include(include).threads(threads)
+                    .addProfiler(GCProfiler.class).build();
+            new Runner(options).run();
+
+            if (threads >= maxThreads) {
+                break;
+            }
+            threads = Math.min(threads * 2, maxThreads);
+        }
+    }
+
+}
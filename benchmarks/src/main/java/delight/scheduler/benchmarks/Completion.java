@@ -0,0 +1,41 @@
+package delight.scheduler.benchmarks;
+
+import delight.async.callbacks.ValueCallback;
+
+/**
+ * A reusable callback a producer thread can wait on until the operation it
+ * scheduled has been reported back.
+ * 
+ * @param <T>
+ */
+final class Completion<T> implements ValueCallback<T> {
+
+    private volatile boolean done;
+    private volatile Throwable failure;
+
+    public void reset() {
+        this.failure = null;
+        this.done = false;
+    }
+
+    @Override
+    public void onSuccess(final T value) {
+        this.done = true;
+    }
+
+    @Override
+    public void onFailure(final Throwable t) {
+        this.failure = t;
+        this.done = true;
+    }
+
+    public void await() {
+        while (!done) {
+            Thread.yield();
+        }
+        if (failure != null) {
+            throw new RuntimeException(failure);
+        }
+    }
+
+}
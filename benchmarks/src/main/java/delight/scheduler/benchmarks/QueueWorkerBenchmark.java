@@ -0,0 +1,80 @@
+package delight.scheduler.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import delight.async.Operation;
+import delight.async.callbacks.ValueCallback;
+import delight.async.jre.Async;
+import delight.concurrency.Concurrency;
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.functional.Success;
+import delight.scheduler.SingleInstanceQueueWorker;
+
+/**
+ * Measures <code>offer -> perfomActions -> processItems</code> of a
+ * {@link SingleInstanceQueueWorker} shared by all producer threads.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueueWorkerBenchmark {
+
+    private SingleInstanceQueueWorker<Completion<Success>> worker;
+
+    @State(Scope.Thread)
+    public static class Producer {
+        final Completion<Success> completion = new Completion<Success>();
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Concurrency concurrency = ConcurrencyJre.create();
+        worker = new SingleInstanceQueueWorker<Completion<Success>>(this,
+                concurrency.newCollection().newThreadSafeQueue((Class) Completion.class), concurrency) {
+
+            @Override
+            protected void processItems(final List<Completion<Success>> items) {
+                for (final Completion<Success> item : items) {
+                    item.onSuccess(Success.INSTANCE);
+                }
+            }
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Async.waitFor(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                worker.shutdown(callback);
+            }
+        });
+    }
+
+    @Benchmark
+    public void offerAndProcess(final Producer producer) {
+        producer.completion.reset();
+        worker.offer(producer.completion);
+        producer.completion.await();
+    }
+
+}
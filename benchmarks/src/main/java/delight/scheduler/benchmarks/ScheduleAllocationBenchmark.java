@@ -0,0 +1,86 @@
+package delight.scheduler.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import delight.async.Operation;
+import delight.async.callbacks.ValueCallback;
+import delight.async.jre.Async;
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.functional.Success;
+import delight.scheduler.CallbackDispatchers;
+import delight.scheduler.SequentialOperationScheduler;
+
+/**
+ * Measures the memory allocated per scheduled operation. Run with
+ * <code>-prof gc</code>. With <code>recycleEntries=true</code> the execution
+ * and its callbacks are reused, so the <code>gc.alloc.rate.norm</code> reported
+ * once warmed up is not 0 B/op but a few small objects: the node the work
+ * queue allocates for every offer and the handle returned by
+ * <code>schedule</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScheduleAllocationBenchmark {
+
+    @Param({ "false", "true" })
+    public boolean recycleEntries;
+
+    private SequentialOperationScheduler scheduler;
+
+    private final Operation<Success> operation = new Operation<Success>() {
+
+        @Override
+        public void apply(final ValueCallback<Success> callback) {
+            callback.onSuccess(Success.INSTANCE);
+        }
+    };
+
+    @State(Scope.Thread)
+    public static class Producer {
+        final Completion<Success> completion = new Completion<Success>();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        scheduler = new SequentialOperationScheduler(this, ConcurrencyJre.create());
+        scheduler.setRecycleEntries(recycleEntries);
+        scheduler.setCallbackDispatcher(CallbackDispatchers.inline());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Async.waitFor(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                scheduler.shutdown(callback);
+            }
+        });
+    }
+
+    @Benchmark
+    public void schedule(final Producer producer) {
+        producer.completion.reset();
+        scheduler.schedule(operation, producer.completion);
+        producer.completion.await();
+    }
+
+}
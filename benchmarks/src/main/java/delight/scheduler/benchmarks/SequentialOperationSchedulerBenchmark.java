@@ -0,0 +1,125 @@
+package delight.scheduler.benchmarks;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import delight.async.Operation;
+import delight.async.callbacks.ValueCallback;
+import delight.async.jre.Async;
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.functional.Success;
+import delight.scheduler.SequentialOperationScheduler;
+
+/**
+ * Measures the round trip
+ * <code>schedule -> runIfRequired -> performRun -> callback</code> of a
+ * {@link SequentialOperationScheduler} shared by all producer threads.
+ * <p>
+ * Run with <code>-t</code> to vary the number of producers and with
+ * <code>-prof gc</code> to obtain the allocation rate.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SequentialOperationSchedulerBenchmark {
+
+    @Param({ "false", "true" })
+    public boolean enforceOwnThread;
+
+    /**
+     * <code>sync</code> operations call their callback before returning,
+     * <code>async</code> operations complete from another thread.
+     */
+    @Param({ "sync", "async" })
+    public String completion;
+
+    private SequentialOperationScheduler scheduler;
+    private ExecutorService completer;
+    private Operation<Success> operation;
+
+    @State(Scope.Thread)
+    public static class Producer {
+        final Completion<Success> completion = new Completion<Success>();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        scheduler = new SequentialOperationScheduler(this, ConcurrencyJre.create());
+        scheduler.setEnforceOwnThread(enforceOwnThread);
+
+        if ("sync".equals(completion)) {
+            operation = new Operation<Success>() {
+
+                @Override
+                public void apply(final ValueCallback<Success> callback) {
+                    callback.onSuccess(Success.INSTANCE);
+                }
+            };
+            return;
+        }
+
+        completer = Executors.newFixedThreadPool(2, new ThreadFactory() {
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "benchmark-completer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        operation = new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                completer.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        callback.onSuccess(Success.INSTANCE);
+                    }
+                });
+            }
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Async.waitFor(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                scheduler.shutdown(callback);
+            }
+        });
+        if (completer != null) {
+            completer.shutdown();
+        }
+    }
+
+    @Benchmark
+    public void scheduleAndComplete(final Producer producer) {
+        producer.completion.reset();
+        scheduler.schedule(operation, producer.completion);
+        producer.completion.await();
+    }
+
+}
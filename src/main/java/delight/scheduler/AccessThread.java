@@ -28,8 +28,32 @@ public interface AccessThread {
 
     public void startIfRequired();
 
+    /**
+     * Notifies the callback once all steps offered before this call have been
+     * processed.
+     * 
+     * @param whenProcessed
+     */
     public void addAllOperationsDoneListener(final SimpleCallback whenProcessed);
 
+    /**
+     * @return The number of steps offered so far. Pass it to
+     *         {@link #whenDrainedUpTo(int, SimpleCallback)} to wait for the
+     *         steps offered up to now. The number wraps around.
+     */
+    public int currentSequence();
+
+    /**
+     * Notifies the callback once at least as many steps have been processed as
+     * the sequence specifies. Since steps are processed in order, this
+     * includes all steps offered before {@link #currentSequence()} returned
+     * the sequence, regardless of steps offered later.
+     * 
+     * @param sequence
+     * @param callback
+     */
+    public void whenDrainedUpTo(final int sequence, final SimpleCallback callback);
+
     public void requestShutdown(final SimpleCallback callback);
 
     public void offer(final Step item);
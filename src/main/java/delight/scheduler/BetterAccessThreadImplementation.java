@@ -1,6 +1,7 @@
 package delight.scheduler;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Queue;
 
@@ -10,20 +11,45 @@ import delight.concurrency.schedule.SingleInstanceThread;
 import delight.concurrency.schedule.Step;
 import delight.concurrency.schedule.ThreadSpace;
 import delight.concurrency.wrappers.SimpleAtomicBoolean;
+import delight.concurrency.wrappers.SimpleAtomicInteger;
 import delight.concurrency.wrappers.SimpleExecutor;
 import delight.concurrency.wrappers.SimpleLock;
 import delight.concurrency.wrappers.WhenExecutorShutDown;
-import delight.simplelog.Log;
 
 public class BetterAccessThreadImplementation implements AccessThread {
 
+    public static final int DEFAULT_DRAIN_BUDGET = 1024;
+
     final Concurrency concurrency;
+    /**
+     * <code>null</code> if this thread runs on a shared {@link WorkerPool}.
+     */
     final SimpleExecutor executor;
+    final WorkerPool workerPool;
     private final SimpleLock lock;
+    /**
+     * The number of threads other than the processing thread waiting in
+     * {@link #acquireMutex()}.
+     */
+    private final SimpleAtomicInteger mutexWaiters;
+
+    private int drainBudget;
+    private int drainTimeBudget;
+    private Clock clock;
+
+    private final Runnable drainTask;
+    private final AccessThreadNotifiyer drainFinished;
 
     protected final Queue<Step> queue;
 
-    private final List<SimpleCallback> finalizedListener;
+    /**
+     * Tickets are drawn before a step is queued and the processed count is
+     * increased after it has been processed; see
+     * {@link #whenDrainedUpTo(int, SimpleCallback)}.
+     */
+    private final SimpleAtomicInteger offeredSequence;
+    private final SimpleAtomicInteger processedSequence;
+    private final Queue<DrainWaiter> drainWaiters;
 
     // Object workerThread;
     final SimpleAtomicBoolean running;
@@ -31,24 +57,49 @@ public class BetterAccessThreadImplementation implements AccessThread {
     final SimpleAtomicBoolean shutdownRequested;
     final SimpleAtomicBoolean isShutDown;
 
-    private volatile SimpleCallback shutDowncallback;
+    private final List<SimpleCallback> shutdownCallbacks;
+
+    private volatile MetricsListener metricsListener;
 
     @Override
     public void offer(final Step item) {
 
+        // shutdown is only finalized once every ticket has been processed
+        offeredSequence.incrementAndGet();
+
         if (isShutDown.get()) {
-            Log.warn(this, "WARNING Trying to submit task for shutdown worker [" + item + "]");
-            // new Exception("here").printStackTrace();
-            item.process();
-            return;
-            // throw new IllegalStateException(
-            // "Cannot submit tasks for a shutdown worker: [" + item + "]");
+            releaseTicket();
+            throw new RejectedOperationException("Cannot submit tasks for a shutdown worker: [" + item + "]");
         }
 
         if (!queue.offer(item)) {
+            releaseTicket();
             throw new IllegalStateException("Queue did not accept new item.");
         }
 
+        final MetricsListener metrics = metricsListener;
+        if (metrics != null) {
+            metrics.onEnqueued(this, -1);
+        }
+
+        if (shutdownRequested.get()) {
+            // the shutdown may have found the queue empty before the step
+            // was added
+            startIfRequired();
+        }
+
+    }
+
+    /**
+     * Accounts for a step which has not been queued, so that its ticket does
+     * not hold up waiters or a shutdown in progress.
+     */
+    private void releaseTicket() {
+        processedSequence.incrementAndGet();
+        notifyDrainWaiters();
+        if (shutdownRequested.get()) {
+            startIfRequired();
+        }
     }
 
     @Override
@@ -65,9 +116,12 @@ public class BetterAccessThreadImplementation implements AccessThread {
     }
 
     private void runProtected() {
-        if (queue.size() == 0) {
+        if (queue.isEmpty()) {
             running.set(false);
-            callAllOperationsDoneListener();
+            if (!queue.isEmpty()) {
+                // offered after the queue was found empty
+                startIfRequired();
+            }
             if (shutdownRequested.get()) {
                 finalizeShutdown();
                 return;
@@ -75,23 +129,16 @@ public class BetterAccessThreadImplementation implements AccessThread {
             return;
         }
 
-        executor.execute(new Runnable() {
-
-            @Override
-            public void run() {
-                BetterAccessThreadImplementation.this.run(new AccessThreadNotifiyer() {
-
-                    @Override
-                    public void notifiyFinished() {
+        execute(drainTask);
 
-                        runProtected();
-
-                    }
-                });
-            }
-
-        });
+    }
 
+    private void execute(final Runnable runnable) {
+        if (workerPool != null) {
+            workerPool.execute(runnable);
+            return;
+        }
+        executor.execute(runnable);
     }
 
     public interface AccessThreadNotifiyer {
@@ -102,31 +149,81 @@ public class BetterAccessThreadImplementation implements AccessThread {
         public void notifiyFinished();
     }
 
+    /**
+     * Processes pending steps while holding the mutex, including steps which
+     * arrive in the meantime, until the queue is empty, the drain budget is
+     * used up or another thread waits for the mutex.
+     * <p>
+     * Steps are taken from the queue one at a time and processed right away,
+     * so draining does not allocate. Steps after one which fails stay queued
+     * for the next drain.
+     */
     protected void run(final AccessThreadNotifiyer callWhenFinished) {
 
-        final List<Step> items = new ArrayList<Step>(queue.size());
-        while (queue.size() > 0) {
+        final long start = drainTimeBudget > 0 ? clock.millis() : 0;
+        final MetricsListener metrics = metricsListener;
+        int processed = 0;
 
+        lock.lock();
+        try {
             Step next;
             while ((next = queue.poll()) != null) {
-                items.add(next);
-            }
-
-        }
+                try {
+                    if (metrics != null) {
+                        processStep(next, metrics);
+                    } else {
+                        next.process();
+                    }
+                } finally {
+                    processedSequence.incrementAndGet();
+                }
+                processed++;
 
-        try {
-            acquireMutex(); // TODO must this really be here?
-            processItems(items);
+                if (processed >= drainBudget) {
+                    break;
+                }
+                if (drainTimeBudget > 0 && clock.millis() - start >= drainTimeBudget) {
+                    break;
+                }
+                if (mutexWaiters.get() > 0) {
+                    // let the waiting thread in before continuing
+                    break;
+                }
+            }
         } finally {
-            releaseMutex();
+            lock.unlock();
 
+            notifyDrainWaiters();
             callWhenFinished.notifiyFinished();
         }
 
     }
 
+    /**
+     * Limits how long the processing thread keeps draining steps which arrive
+     * while it is running before it yields to the executor. The default is
+     * {@link #DEFAULT_DRAIN_BUDGET} steps without a time limit.
+     * 
+     * @param maxSteps
+     * @param maxTimeInMs
+     *            <code>0</code> for no time limit.
+     */
+    public void setDrainBudget(final int maxSteps, final int maxTimeInMs) {
+        if (maxSteps < 1) {
+            throw new IllegalArgumentException("Drain budget must allow at least one step: " + maxSteps);
+        }
+        this.drainBudget = maxSteps;
+        this.drainTimeBudget = maxTimeInMs;
+    }
+
     private final void processItems(final List<Step> items) {
 
+        final MetricsListener metrics = metricsListener;
+        if (metrics != null) {
+            processItems(items, metrics);
+            return;
+        }
+
         for (final Step item : items) {
 
             item.process();
@@ -135,82 +232,186 @@ public class BetterAccessThreadImplementation implements AccessThread {
 
     }
 
+    private final void processItems(final List<Step> items, final MetricsListener metrics) {
+        for (final Step item : items) {
+            processStep(item, metrics);
+        }
+    }
+
+    private final void processStep(final Step item, final MetricsListener metrics) {
+        final long start = System.nanoTime();
+        boolean completed = false;
+        try {
+            item.process();
+            completed = true;
+        } finally {
+            if (completed) {
+                metrics.onCompleted(this, System.nanoTime() - start);
+            } else {
+                metrics.onFailed(this, System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Sets the clock which measures the time budget of drains.
+     * 
+     * @param clock
+     */
+    public void setClock(final Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Reports measurements of this thread to the listener. Set to
+     * <code>null</code> to stop measuring.
+     * 
+     * @param listener
+     */
+    public void setMetricsListener(final MetricsListener listener) {
+        this.metricsListener = listener;
+    }
+
     @Override
     public void addAllOperationsDoneListener(final SimpleCallback whenProcessed) {
-        if (!this.isRunning() && this.queue.size() == 0) {
-            whenProcessed.onSuccess();
-            callAllOperationsDoneListener();
+        whenDrainedUpTo(currentSequence(), whenProcessed);
+    }
+
+    @Override
+    public int currentSequence() {
+        return offeredSequence.get();
+    }
+
+    @Override
+    public void whenDrainedUpTo(final int sequence, final SimpleCallback callback) {
+        if (isDrainedUpTo(sequence)) {
+            callback.onSuccess();
             return;
         }
 
-        this.finalizedListener.add(new SimpleCallback() {
+        final DrainWaiter waiter = new DrainWaiter(sequence, callback);
+        drainWaiters.offer(waiter);
 
-            @Override
-            public void onSuccess() {
-                whenProcessed.onSuccess();
+        // the processing thread may have checked the waiters just before
+        if (isDrainedUpTo(sequence)) {
+            drainWaiters.remove(waiter);
+            waiter.fire();
+            return;
+        }
+
+        this.startIfRequired();
+    }
+
+    private boolean isDrainedUpTo(final int sequence) {
+        // tolerates the sequence wrapping around
+        return processedSequence.get() - sequence >= 0;
+    }
+
+    private void notifyDrainWaiters() {
+        if (drainWaiters.isEmpty()) {
+            return;
+        }
+        final Iterator<DrainWaiter> waiters = drainWaiters.iterator();
+        while (waiters.hasNext()) {
+            final DrainWaiter waiter = waiters.next();
+            if (isDrainedUpTo(waiter.sequence)) {
+                waiters.remove();
+                waiter.fire();
             }
+        }
+    }
 
-            @Override
-            public void onFailure(final Throwable t) {
-                whenProcessed.onFailure(t);
+    private final class DrainWaiter {
+
+        private final int sequence;
+        private final SimpleCallback callback;
+        private final SimpleAtomicBoolean fired;
+
+        private void fire() {
+            if (fired.compareAndSet(false, true)) {
+                callback.onSuccess();
             }
-        });
+        }
+
+        private DrainWaiter(final int sequence, final SimpleCallback callback) {
+            super();
+            this.sequence = sequence;
+            this.callback = callback;
+            this.fired = concurrency.newAtomicBoolean(false);
+        }
 
-        this.startIfRequired();
     }
 
+    /**
+     * Can be called more than once; every callback is notified once the
+     * thread is shut down, immediately if it already is.
+     */
     @Override
     public void requestShutdown(final SimpleCallback callback) {
-        if (shutDowncallback != null) {
-            throw new RuntimeException("Shutdown should only be requested once.");
+        final boolean alreadyShutDown;
+        synchronized (shutdownCallbacks) {
+            alreadyShutDown = isShutDown.get();
+            if (!alreadyShutDown) {
+                shutdownCallbacks.add(callback);
+                this.shutdownRequested.set(true);
+            }
+        }
+        if (alreadyShutDown) {
+            callback.onSuccess();
+            return;
         }
-        shutDowncallback = callback;
-        this.shutdownRequested.set(true);
         this.startIfRequired();
     }
 
     private void finalizeShutdown() {
-        this.shutdownRequested.set(false);
-        isShutDown.set(true);
+        synchronized (shutdownCallbacks) {
+            if (!this.shutdownRequested.get()) {
+                return;
+            }
+            isShutDown.set(true);
+            if (processedSequence.get() != offeredSequence.get()) {
+                // a step is being offered and has not seen the flag; the
+                // offering thread drains it and finalizes the shutdown
+                isShutDown.set(false);
+                return;
+            }
+            this.shutdownRequested.set(false);
+        }
+
+        if (this.executor == null) {
+            // the shared pool is not owned by this thread
+            notifyShutdown(null);
+            return;
+        }
+
         this.executor.shutdown(new WhenExecutorShutDown() {
 
             @Override
             public void onSuccess() {
-                shutDowncallback.onSuccess();
-                shutDowncallback = null;
+                notifyShutdown(null);
             }
 
             @Override
             public void onFailure(final Throwable t) {
-                if (shutDowncallback == null) {
-                    throw new RuntimeException("Wanted to report failure but callback was already called.", t);
-                }
-                shutDowncallback.onFailure(t);
+                notifyShutdown(t);
             }
         });
 
     }
 
-    private void callAllOperationsDoneListener() {
-        synchronized (finalizedListener) {
-            if (finalizedListener.size() > 0) {
-                final ArrayList<SimpleCallback> toProcesses = new ArrayList<SimpleCallback>(finalizedListener);
-                this.finalizedListener.clear();
-                for (final SimpleCallback p : toProcesses) {
-                    p.onSuccess();
-                }
-
-            }
-        }
-        if (finalizedListener.size() > 0) {
-            callAllOperationsDoneListener();
-            return;
+    private void notifyShutdown(final Throwable failure) {
+        final List<SimpleCallback> callbacks;
+        synchronized (shutdownCallbacks) {
+            callbacks = new ArrayList<SimpleCallback>(shutdownCallbacks);
+            shutdownCallbacks.clear();
         }
-
-        if (queue.size() > 0) {
-            this.startIfRequired();
+        for (final SimpleCallback callback : callbacks) {
+            if (failure != null) {
+                callback.onFailure(failure);
+            } else {
+                callback.onSuccess();
+            }
         }
-
     }
 
     @Override
@@ -230,6 +431,10 @@ public class BetterAccessThreadImplementation implements AccessThread {
         });
     }
 
+    /**
+     * @return The executor of this thread or <code>null</code> if it runs on a
+     *         shared {@link WorkerPool}.
+     */
     @Override
     public SimpleExecutor getExecutor() {
         return executor;
@@ -249,7 +454,16 @@ public class BetterAccessThreadImplementation implements AccessThread {
 
     @Override
     public void acquireMutex() {
-        this.lock.lock();
+        if (this.lock.isHeldByCurrentThread()) {
+            this.lock.lock();
+            return;
+        }
+        mutexWaiters.incrementAndGet();
+        try {
+            this.lock.lock();
+        } finally {
+            mutexWaiters.decrementAndGet();
+        }
     }
 
     @Override
@@ -359,20 +573,70 @@ public class BetterAccessThreadImplementation implements AccessThread {
     }
 
     public BetterAccessThreadImplementation(final Concurrency concurrency) {
+        this(concurrency, null);
+    }
+
+    /**
+     * Creates an access thread which processes its steps on a pool shared with
+     * other threads and schedulers. Steps are still processed by one thread at
+     * a time and in order.
+     * 
+     * @param concurrency
+     * @param workerPool
+     */
+    public BetterAccessThreadImplementation(final Concurrency concurrency, final WorkerPool workerPool) {
+        this(concurrency, workerPool, WorkQueues.threadSafe(concurrency));
+    }
+
+    /**
+     * 
+     * @param concurrency
+     * @param workerPool
+     *            The pool to process steps on or <code>null</code> to use a
+     *            thread of its own.
+     * @param queueFactory
+     *            Creates the queue for pending steps.
+     */
+    public BetterAccessThreadImplementation(final Concurrency concurrency, final WorkerPool workerPool,
+            final WorkQueueFactory queueFactory) {
         super();
         this.concurrency = concurrency;
 
-        this.executor = concurrency.newExecutor().newSingleThreadExecutor(this);
+        this.workerPool = workerPool;
+        this.executor = workerPool == null ? concurrency.newExecutor().newSingleThreadExecutor(this) : null;
 
         this.running = concurrency.newAtomicBoolean(false);
         this.isShutDown = concurrency.newAtomicBoolean(false);
         this.shutdownRequested = concurrency.newAtomicBoolean(false);
+        this.shutdownCallbacks = new ArrayList<SimpleCallback>(1);
 
-        this.queue = concurrency.newCollection().newThreadSafeQueue(Step.class);
+        this.queue = queueFactory.newQueue(Step.class);
 
         this.lock = concurrency.newLock();
+        this.mutexWaiters = concurrency.newAtomicInteger(0);
+
+        this.drainBudget = DEFAULT_DRAIN_BUDGET;
+        this.drainTimeBudget = 0;
+        this.clock = Clocks.monotonic();
+
+        this.drainFinished = new AccessThreadNotifiyer() {
+
+            @Override
+            public void notifiyFinished() {
+                runProtected();
+            }
+        };
+        this.drainTask = new Runnable() {
+
+            @Override
+            public void run() {
+                BetterAccessThreadImplementation.this.run(drainFinished);
+            }
+        };
 
-        this.finalizedListener = concurrency.newCollection().newThreadSafeList(SimpleCallback.class);
+        this.offeredSequence = concurrency.newAtomicInteger(0);
+        this.processedSequence = concurrency.newAtomicInteger(0);
+        this.drainWaiters = concurrency.newCollection().newThreadSafeQueue(DrainWaiter.class);
 
         // this.maxCalltime = -1;
 
@@ -0,0 +1,72 @@
+package delight.scheduler;
+
+import delight.concurrency.Concurrency;
+import delight.concurrency.wrappers.SimpleAtomicBoolean;
+
+/**
+ * A clock which is advanced by a timer, so that reading it does not read the
+ * underlying clock.
+ *
+ * @see Clocks#cached(Concurrency, int)
+ */
+public final class CachedClock implements Clock {
+
+    private final Concurrency concurrency;
+    private final Clock source;
+    private final int resolution;
+
+    private volatile long now;
+    private final SimpleAtomicBoolean running;
+    private final Runnable tickTask;
+
+    @Override
+    public long millis() {
+        return now;
+    }
+
+    /**
+     * Stops advancing this clock.
+     */
+    public void stop() {
+        running.set(false);
+    }
+
+    private void tick() {
+        if (!running.get()) {
+            return;
+        }
+        final long time = source.millis();
+        if (time > now) {
+            now = time;
+        }
+        concurrency.newTimer().scheduleOnce(resolution, tickTask);
+    }
+
+    /**
+     * Creates a clock which is advanced right away.
+     *
+     * @param concurrency
+     * @param source
+     * @param resolutionInMs
+     */
+    public CachedClock(final Concurrency concurrency, final Clock source, final int resolutionInMs) {
+        super();
+        if (resolutionInMs <= 0) {
+            throw new IllegalArgumentException("Resolution must be positive: " + resolutionInMs);
+        }
+        this.concurrency = concurrency;
+        this.source = source;
+        this.resolution = resolutionInMs;
+        this.now = source.millis();
+        this.running = concurrency.newAtomicBoolean(true);
+        this.tickTask = new Runnable() {
+
+            @Override
+            public void run() {
+                tick();
+            }
+        };
+        concurrency.newTimer().scheduleOnce(resolutionInMs, tickTask);
+    }
+
+}
@@ -0,0 +1,19 @@
+package delight.scheduler;
+
+/**
+ * Determines the thread on which the callbacks of scheduled operations are
+ * called.
+ * 
+ * @see CallbackDispatchers
+ *
+ */
+public interface CallbackDispatcher {
+
+    /**
+     * Runs the task which reports the result of an operation to its callback.
+     * 
+     * @param callbackTask
+     */
+    public void dispatch(Runnable callbackTask);
+
+}
@@ -0,0 +1,74 @@
+package delight.scheduler;
+
+import delight.concurrency.Concurrency;
+import delight.concurrency.wrappers.SimpleExecutor;
+import delight.simplelog.Log;
+
+/**
+ * The available {@link CallbackDispatcher}s.
+ *
+ */
+public final class CallbackDispatchers {
+
+    public static final int SHARED_MAX_THREADS = 16;
+
+    private static CallbackDispatcher shared;
+
+    private static final CallbackDispatcher INLINE = new CallbackDispatcher() {
+
+        @Override
+        public void dispatch(final Runnable callbackTask) {
+            try {
+                callbackTask.run();
+            } catch (final Throwable t) {
+                Log.warn(this, "Exception in callback: " + t.getMessage(), t);
+            }
+        }
+
+    };
+
+    /**
+     * Calls callbacks directly on the thread which completed the operation.
+     * This avoids any hand off but the next operation only starts once the
+     * callback returns. Exceptions thrown by callbacks are logged.
+     * 
+     * @return
+     */
+    public static CallbackDispatcher inline() {
+        return INLINE;
+    }
+
+    /**
+     * Calls callbacks on one executor shared by all schedulers using this
+     * dispatcher.
+     * 
+     * @param concurrency
+     * @return
+     */
+    public static synchronized CallbackDispatcher shared(final Concurrency concurrency) {
+        if (shared == null) {
+            shared = executor(
+                    concurrency.newExecutor().newParallelExecutor(0, SHARED_MAX_THREADS, CallbackDispatchers.class));
+        }
+        return shared;
+    }
+
+    /**
+     * Calls callbacks on the provided executor. The executor is not shut down
+     * together with the scheduler.
+     * 
+     * @param executor
+     * @return
+     */
+    public static CallbackDispatcher executor(final SimpleExecutor executor) {
+        return new CallbackDispatcher() {
+
+            @Override
+            public void dispatch(final Runnable callbackTask) {
+                executor.execute(callbackTask);
+            }
+
+        };
+    }
+
+}
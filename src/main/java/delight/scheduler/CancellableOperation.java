@@ -0,0 +1,21 @@
+package delight.scheduler;
+
+import delight.async.Operation;
+import delight.async.callbacks.ValueCallback;
+
+/**
+ * An operation which can stop its work once it has been cancelled.
+ * <p>
+ * {@link SequentialOperationScheduler}, {@link KeyedSequentialScheduler} and
+ * {@link ParallelRequestTimeEnforcer} call
+ * {@link #apply(CancellationToken, ValueCallback)} and cancel the token if the
+ * operation times out. Callers not aware of cancellation use
+ * {@link #apply(ValueCallback)}, which usually delegates with a new token.
+ *
+ * @param <R>
+ */
+public interface CancellableOperation<R> extends Operation<R> {
+
+    public void apply(CancellationToken token, ValueCallback<R> callback);
+
+}
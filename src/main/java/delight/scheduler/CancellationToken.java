@@ -0,0 +1,90 @@
+package delight.scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import delight.simplelog.Log;
+
+/**
+ * Tells a {@link CancellableOperation} that its result is no longer needed,
+ * for instance since it has timed out.
+ * <p>
+ * Long running operations should check {@link #isCancelled()} between steps
+ * and register cleanup hooks for the resources they hold, so that abandoned
+ * work stops using CPU, connections and memory.
+ *
+ */
+public final class CancellationToken {
+
+    private volatile boolean cancelled;
+
+    /**
+     * Guarded by this token. Dropped once cancelled.
+     */
+    private List<Runnable> cleanups;
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Registers a hook which is run when the operation is cancelled, or right
+     * away if it already has been. Hooks are run on the thread cancelling the
+     * operation, often a timer, and should only release resources.
+     *
+     * @param cleanup
+     */
+    public void onCancel(final Runnable cleanup) {
+        synchronized (this) {
+            if (!cancelled) {
+                if (cleanups == null) {
+                    cleanups = new ArrayList<Runnable>(2);
+                }
+                cleanups.add(cleanup);
+                return;
+            }
+        }
+        runCleanup(cleanup);
+    }
+
+    /**
+     * Cancels this token and runs all registered hooks.
+     *
+     * @return <code>false</code> if the token was already cancelled.
+     */
+    boolean cancel() {
+        final List<Runnable> toRun;
+        synchronized (this) {
+            if (cancelled) {
+                return false;
+            }
+            cancelled = true;
+            toRun = cleanups;
+            cleanups = null;
+        }
+        if (toRun != null) {
+            for (final Runnable cleanup : toRun) {
+                runCleanup(cleanup);
+            }
+        }
+        return true;
+    }
+
+    private void runCleanup(final Runnable cleanup) {
+        try {
+            cleanup.run();
+        } catch (final Throwable t) {
+            Log.warn(this, "Exception in cleanup of cancelled operation: " + t.getMessage(), t);
+        }
+    }
+
+    /**
+     * Creates a token which is only cancelled by the scheduler it is passed
+     * from. Operations called directly can be given a new token.
+     */
+    public CancellationToken() {
+        super();
+        this.cancelled = false;
+    }
+
+}
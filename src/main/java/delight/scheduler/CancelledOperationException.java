@@ -0,0 +1,15 @@
+package delight.scheduler;
+
+/**
+ * Reported for operations which have been withdrawn by the caller through
+ * their {@link OperationHandle}.
+ */
+public class CancelledOperationException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    public CancelledOperationException(final String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,37 @@
+package delight.scheduler;
+
+/**
+ * Blocks threads scheduling operations until a scheduler has capacity for
+ * them. Blocking is not available on all platforms; see
+ * <code>delight.scheduler.jre.BlockingCapacityWaiter</code> for the JRE.
+ *
+ * @see OverflowPolicy#BLOCK
+ */
+public interface CapacityWaiter {
+
+    public interface Condition {
+
+        /**
+         * Tries to take up capacity.
+         * 
+         * @return <code>true</code> if capacity was available.
+         */
+        public boolean tryAcquire();
+
+    }
+
+    /**
+     * Blocks until the condition could be acquired or the timeout elapsed.
+     * 
+     * @param condition
+     * @param timeoutInMs
+     * @return <code>true</code> if the condition was acquired.
+     */
+    public boolean await(Condition condition, int timeoutInMs);
+
+    /**
+     * Called whenever capacity has been released.
+     */
+    public void signal();
+
+}
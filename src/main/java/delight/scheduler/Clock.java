@@ -0,0 +1,16 @@
+package delight.scheduler;
+
+/**
+ * The source of time for timeouts, time budgets and queue wait times.
+ *
+ * @see Clocks
+ */
+public interface Clock {
+
+    /**
+     * @return Milliseconds since an arbitrary origin. Never decreases, even if
+     *         the wall clock of the system is changed.
+     */
+    public long millis();
+
+}
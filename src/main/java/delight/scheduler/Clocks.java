@@ -0,0 +1,43 @@
+package delight.scheduler;
+
+import delight.concurrency.Concurrency;
+
+/**
+ * The {@link Clock} implementations available.
+ *
+ */
+public final class Clocks {
+
+    private static final Clock MONOTONIC = new Clock() {
+
+        @Override
+        public long millis() {
+            return System.nanoTime() / 1000000L;
+        }
+    };
+
+    /**
+     * The default clock. Unlike <code>System.currentTimeMillis()</code>, it is
+     * not affected by adjustments of the wall clock.
+     */
+    public static Clock monotonic() {
+        return MONOTONIC;
+    }
+
+    /**
+     * A clock which reads the monotonic clock once per resolution on a timer,
+     * so that reading it is as cheap as reading a field. Times are up to the
+     * resolution behind.
+     *
+     * @param concurrency
+     * @param resolutionInMs
+     */
+    public static CachedClock cached(final Concurrency concurrency, final int resolutionInMs) {
+        return new CachedClock(concurrency, MONOTONIC, resolutionInMs);
+    }
+
+    private Clocks() {
+        super();
+    }
+
+}
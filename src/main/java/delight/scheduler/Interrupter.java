@@ -0,0 +1,30 @@
+package delight.scheduler;
+
+/**
+ * Interrupts the thread running an operation which has timed out. Threads
+ * cannot be interrupted on all platforms; see
+ * <code>delight.scheduler.jre.ThreadInterrupter</code> for the JRE.
+ *
+ * @see SequentialOperationScheduler#setInterrupter(Interrupter)
+ */
+public interface Interrupter {
+
+    /**
+     * @return Identifies the calling thread, so that it can be interrupted
+     *         later.
+     */
+    public Object currentThread();
+
+    /**
+     * @param thread
+     *            As returned by {@link #currentThread()}.
+     */
+    public void interrupt(Object thread);
+
+    /**
+     * Clears an interrupt of the calling thread which arrived after the
+     * operation had already returned.
+     */
+    public void clearInterrupt();
+
+}
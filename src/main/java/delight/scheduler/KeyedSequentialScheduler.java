@@ -0,0 +1,438 @@
+package delight.scheduler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import delight.async.Operation;
+import delight.async.callbacks.ValueCallback;
+import delight.concurrency.Concurrency;
+import delight.concurrency.wrappers.SimpleAtomicBoolean;
+import delight.concurrency.wrappers.SimpleAtomicInteger;
+import delight.functional.Success;
+import delight.simplelog.Log;
+
+/**
+ * Runs operations scheduled for the same key strictly one after another and
+ * in order, while operations for different keys run in parallel.
+ * <p>
+ * Every key with pending operations has a lightweight lane. Lanes are created
+ * when the first operation for a key is scheduled and removed as soon as they
+ * become idle. They are kept in a striped table, so that keys in different
+ * stripes do not contend. Operations run on a {@link WorkerPool}.
+ *
+ * @param <K>
+ */
+public final class KeyedSequentialScheduler<K> {
+
+    public static final int DEFAULT_STRIPES = 64;
+
+    private final Concurrency concurrency;
+    private final Stripe<K>[] stripes;
+    private final int stripeMask;
+
+    private final WorkerPool workerPool;
+    private CallbackDispatcher callbackDispatcher;
+    private TimeoutWheel timeoutWheel;
+    private int timeout;
+    private int batchSize;
+
+    private final SimpleAtomicInteger activeLanes;
+    private final SimpleAtomicBoolean shuttingDown;
+    /**
+     * Notified once all lanes are idle, guarded by this scheduler.
+     */
+    private final List<ValueCallback<Success>> shutdownCallbacks;
+    private boolean shutDown;
+
+    private static final class Stripe<K> {
+        private final Map<K, Object> lanes = new HashMap<K, Object>();
+    }
+
+    /**
+     * The operations pending for one key. All fields except
+     * <code>current</code> are guarded by the stripe of the key.
+     */
+    private final class Lane implements Runnable {
+
+        private final K key;
+        private final Stripe<K> stripe;
+
+        private Entry head;
+        private Entry tail;
+
+        /**
+         * Only accessed by the thread which runs the lane.
+         */
+        private Entry current;
+
+        /**
+         * Runs the current entry and, as long as they complete synchronously,
+         * the following ones up to the batch size.
+         */
+        @Override
+        public void run() {
+            for (int i = 0; i < batchSize; i++) {
+                final Entry entry = current;
+                if (!entry.execute()) {
+                    // continued when the entry completes
+                    return;
+                }
+                if (!advance()) {
+                    return;
+                }
+            }
+            workerPool.execute(this);
+        }
+
+        /**
+         * Makes the next pending entry current or removes the lane if there is
+         * none.
+         *
+         * @return <code>true</code> if there is an entry to run.
+         */
+        private boolean advance() {
+            synchronized (stripe) {
+                final Entry next = head;
+                if (next != null) {
+                    head = next.next;
+                    if (head == null) {
+                        tail = null;
+                    }
+                    next.next = null;
+                    current = next;
+                    return true;
+                }
+                stripe.lanes.remove(key);
+            }
+            current = null;
+            if (activeLanes.decrementAndGet() == 0 && shuttingDown.get()) {
+                tryShutdown();
+            }
+            return false;
+        }
+
+        private Lane(final K key, final Stripe<K> stripe) {
+            super();
+            this.key = key;
+            this.stripe = stripe;
+        }
+
+    }
+
+    private final class Entry implements ValueCallback<Object>, Runnable {
+
+        private final Lane lane;
+        private final Operation<Object> operation;
+        private final ValueCallback<Object> callback;
+        private Entry next;
+
+        private final SimpleAtomicBoolean completed;
+        /**
+         * Set while the lane thread is inside apply. Whoever resets it first
+         * decides if the lane thread continues with the next entry.
+         */
+        private final SimpleAtomicBoolean applying;
+        private volatile boolean timedOut;
+        private TimeoutWheel.Timeout timeoutHandle;
+        private volatile CancellationToken token;
+
+        private Object value;
+        private Throwable failure;
+
+        /**
+         * @return <code>true</code> if the lane thread should continue with
+         *         the next entry.
+         */
+        @SuppressWarnings("unchecked")
+        private boolean execute() {
+            final CancellationToken token = operation instanceof CancellableOperation ? new CancellationToken()
+                    : null;
+            this.token = token;
+            timeoutHandle = timeoutWheel.schedule(timeout, new Runnable() {
+
+                @Override
+                public void run() {
+                    timerHandOff().dispatch(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            onTimeout();
+                        }
+                    });
+                }
+            });
+
+            applying.set(true);
+            try {
+                if (token != null) {
+                    ((CancellableOperation<Object>) operation).apply(token, this);
+                } else {
+                    operation.apply(this);
+                }
+            } catch (final Throwable t) {
+                onFailure(t);
+            }
+
+            if (applying.compareAndSet(true, false)) {
+                return false;
+            }
+            return !timedOut;
+        }
+
+        private void onTimeout() {
+            if (!completed.compareAndSet(false, true)) {
+                return;
+            }
+            timedOut = true;
+            Log.warn(this, "Operation for key [" + lane.key + "] timed out: " + operation);
+            final CancellationToken token = this.token;
+            if (token != null) {
+                token.cancel();
+            }
+
+            failure = new Exception("Operation timed out.");
+            callbackDispatcher.dispatch(this);
+
+            // the lane thread may still be blocked in apply
+            applying.set(false);
+            if (lane.advance()) {
+                workerPool.execute(lane);
+            }
+        }
+
+        private void complete(final Object value, final Throwable failure) {
+            if (!completed.compareAndSet(false, true)) {
+                Log.warn(this, "Operation [" + operation
+                        + "] completed after it timed out or its callback was already triggered.");
+                return;
+            }
+            timeoutHandle.cancel();
+
+            this.value = value;
+            this.failure = failure;
+            callbackDispatcher.dispatch(this);
+
+            if (applying.compareAndSet(true, false)) {
+                // the lane thread continues once apply returns
+                return;
+            }
+            if (lane.advance()) {
+                workerPool.execute(lane);
+            }
+        }
+
+        @Override
+        public void onFailure(final Throwable t) {
+            complete(null, t);
+        }
+
+        @Override
+        public void onSuccess(final Object value) {
+            complete(value, null);
+        }
+
+        /**
+         * Reports the result to the callback of the caller.
+         */
+        @Override
+        public void run() {
+            if (failure != null) {
+                callback.onFailure(failure);
+                return;
+            }
+            callback.onSuccess(value);
+        }
+
+        private Entry(final Lane lane, final Operation<Object> operation, final ValueCallback<Object> callback) {
+            super();
+            this.lane = lane;
+            this.operation = operation;
+            this.callback = callback;
+            this.completed = concurrency.newAtomicBoolean(false);
+            this.applying = concurrency.newAtomicBoolean(false);
+        }
+
+    }
+
+    @SuppressWarnings("unchecked")
+    public <R> void schedule(final K key, final Operation<R> operation, final ValueCallback<R> callback) {
+        final Stripe<K> stripe = stripeFor(key);
+
+        Lane start = null;
+        final boolean idle;
+        final boolean rejected;
+        synchronized (stripe) {
+            Lane lane = (Lane) stripe.lanes.get(key);
+            idle = lane == null;
+            if (idle) {
+                // counted before the check, so that a concurrent shutdown
+                // either waits for this lane or the operation is rejected
+                activeLanes.incrementAndGet();
+            }
+            rejected = shuttingDown.get();
+            if (!rejected) {
+                if (idle) {
+                    lane = new Lane(key, stripe);
+                    stripe.lanes.put(key, lane);
+                }
+
+                final Entry entry = new Entry(lane, (Operation<Object>) operation,
+                        (ValueCallback<Object>) callback);
+                if (idle) {
+                    lane.current = entry;
+                    start = lane;
+                } else if (lane.tail == null) {
+                    lane.head = entry;
+                    lane.tail = entry;
+                } else {
+                    lane.tail.next = entry;
+                    lane.tail = entry;
+                }
+            }
+        }
+
+        if (rejected) {
+            if (idle && activeLanes.decrementAndGet() == 0) {
+                tryShutdown();
+            }
+            throw new RejectedOperationException("Trying to schedule operation for shutting down scheduler.");
+        }
+
+        if (start != null) {
+            workerPool.execute(start);
+        }
+    }
+
+    /**
+     * @return The number of keys which currently have pending operations.
+     */
+    public int activeLaneCount() {
+        return activeLanes.get();
+    }
+
+    /**
+     * Shuts down the scheduler once all operations scheduled so far have been
+     * run. Operations scheduled from now on are rejected with
+     * {@link RejectedOperationException}. Can be called more than once.
+     *
+     * @param cb
+     */
+    public void shutdown(final ValueCallback<Success> cb) {
+        final boolean alreadyShutDown;
+        synchronized (this) {
+            alreadyShutDown = shutDown;
+            if (!alreadyShutDown) {
+                shutdownCallbacks.add(cb);
+                shuttingDown.set(true);
+                if (activeLanes.get() != 0) {
+                    return;
+                }
+            }
+        }
+        if (alreadyShutDown) {
+            cb.onSuccess(Success.INSTANCE);
+            return;
+        }
+        tryShutdown();
+    }
+
+    private void tryShutdown() {
+        final List<ValueCallback<Success>> callbacks;
+        synchronized (this) {
+            shutDown = true;
+            callbacks = new ArrayList<ValueCallback<Success>>(shutdownCallbacks);
+            shutdownCallbacks.clear();
+        }
+        for (final ValueCallback<Success> cb : callbacks) {
+            cb.onSuccess(Success.INSTANCE);
+        }
+    }
+
+    private Stripe<K> stripeFor(final K key) {
+        final int h = key.hashCode();
+        return stripes[(h ^ (h >>> 16)) & stripeMask];
+    }
+
+    public void setTimeout(final int timeoutInMs) {
+        this.timeout = timeoutInMs;
+    }
+
+    public void setTimeoutWheel(final TimeoutWheel timeoutWheel) {
+        this.timeoutWheel = timeoutWheel;
+    }
+
+    public void setCallbackDispatcher(final CallbackDispatcher callbackDispatcher) {
+        this.callbackDispatcher = callbackDispatcher;
+    }
+
+    /**
+     * Sets how many synchronously completing operations of a lane are run back
+     * to back before the lane yields its pool thread.
+     *
+     * @param maxOperations
+     *            At least <code>1</code>.
+     */
+    public void setBatchSize(final int maxOperations) {
+        if (maxOperations < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1: " + maxOperations);
+        }
+        this.batchSize = maxOperations;
+    }
+
+    /**
+     * Moves work off the timer of the wheel, which is shared by many
+     * schedulers. Callbacks which are called inline would otherwise run on the
+     * timer as well.
+     */
+    private CallbackDispatcher timerHandOff() {
+        final CallbackDispatcher dispatcher = callbackDispatcher;
+        if (dispatcher == CallbackDispatchers.inline()) {
+            return CallbackDispatchers.shared(concurrency);
+        }
+        return dispatcher;
+    }
+
+    public Concurrency getConcurrency() {
+        return this.concurrency;
+    }
+
+    public KeyedSequentialScheduler(final Concurrency concurrency) {
+        this(concurrency, WorkerPools.shared(concurrency), DEFAULT_STRIPES);
+    }
+
+    /**
+     *
+     * @param concurrency
+     * @param workerPool
+     * @param stripeCount
+     *            Must be a power of two.
+     */
+    @SuppressWarnings("unchecked")
+    public KeyedSequentialScheduler(final Concurrency concurrency, final WorkerPool workerPool,
+            final int stripeCount) {
+        super();
+        if (stripeCount <= 0 || (stripeCount & (stripeCount - 1)) != 0) {
+            throw new IllegalArgumentException("Stripe count must be a power of two: " + stripeCount);
+        }
+        this.concurrency = concurrency;
+        this.workerPool = workerPool;
+        this.stripes = (Stripe<K>[]) new Stripe<?>[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            this.stripes[i] = new Stripe<K>();
+        }
+        this.stripeMask = stripeCount - 1;
+
+        this.callbackDispatcher = CallbackDispatchers.shared(concurrency);
+        this.timeoutWheel = TimeoutWheel.getShared(concurrency);
+        this.timeout = 3000;
+        this.batchSize = 16;
+
+        this.activeLanes = concurrency.newAtomicInteger(0);
+        this.shuttingDown = concurrency.newAtomicBoolean(false);
+        this.shutdownCallbacks = new ArrayList<ValueCallback<Success>>(1);
+        this.shutDown = false;
+    }
+
+}
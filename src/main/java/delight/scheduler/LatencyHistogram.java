@@ -0,0 +1,162 @@
+package delight.scheduler;
+
+/**
+ * Records values such as durations in nanoseconds in logarithmic buckets,
+ * each of which is divided linearly into 16 sub-buckets. Every recorded value
+ * is thus kept with a relative error of less than 1/16, independent of its
+ * magnitude, in a fixed amount of memory.
+ *
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    /**
+     * Bucket <code>i</code> is guarded by lock <code>i % LOCK_STRIPES</code>,
+     * so neighbouring buckets, where most values of a distribution fall, do
+     * not share a lock. There is no field shared by all buckets; counts, sums
+     * and maxima are aggregated when they are read.
+     */
+    private static final int LOCK_STRIPES = 64;
+
+    private final Object[] locks;
+    private final long[] counts;
+    private final long[] sums;
+    private final long[] maxima;
+
+    public void record(final long value) {
+        final long v = value < 0 ? 0 : value;
+        final int index = indexOf(v);
+        synchronized (locks[index & (LOCK_STRIPES - 1)]) {
+            counts[index]++;
+            sums[index] += v;
+            if (v > maxima[index]) {
+                maxima[index] = v;
+            }
+        }
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int stripe = 0; stripe < LOCK_STRIPES; stripe++) {
+            synchronized (locks[stripe]) {
+                for (int i = stripe; i < BUCKETS; i += LOCK_STRIPES) {
+                    count += counts[i];
+                }
+            }
+        }
+        return count;
+    }
+
+    public long getMax() {
+        for (int i = BUCKETS - 1; i >= 0; i--) {
+            synchronized (locks[i & (LOCK_STRIPES - 1)]) {
+                if (counts[i] > 0) {
+                    return maxima[i];
+                }
+            }
+        }
+        return 0;
+    }
+
+    public long getMean() {
+        long count = 0;
+        long sum = 0;
+        for (int stripe = 0; stripe < LOCK_STRIPES; stripe++) {
+            synchronized (locks[stripe]) {
+                for (int i = stripe; i < BUCKETS; i += LOCK_STRIPES) {
+                    count += counts[i];
+                    sum += sums[i];
+                }
+            }
+        }
+        if (count == 0) {
+            return 0;
+        }
+        return sum / count;
+    }
+
+    /**
+     * @param percentile
+     *            Between <code>0</code> and <code>100</code>.
+     * @return The largest value of the bucket in which the percentile falls,
+     *         but no more than the maximum recorded value.
+     */
+    public long getValueAtPercentile(final double percentile) {
+        final long[] snapshot = new long[BUCKETS];
+        long totalCount = 0;
+        for (int stripe = 0; stripe < LOCK_STRIPES; stripe++) {
+            synchronized (locks[stripe]) {
+                for (int i = stripe; i < BUCKETS; i += LOCK_STRIPES) {
+                    snapshot[i] = counts[i];
+                    totalCount += counts[i];
+                }
+            }
+        }
+        if (totalCount == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100.0 * totalCount);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    public void reset() {
+        for (int stripe = 0; stripe < LOCK_STRIPES; stripe++) {
+            synchronized (locks[stripe]) {
+                for (int i = stripe; i < BUCKETS; i += LOCK_STRIPES) {
+                    counts[i] = 0;
+                    sums[i] = 0;
+                    maxima[i] = 0;
+                }
+            }
+        }
+    }
+
+    private static int indexOf(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long highestValueOf(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKETS - 1;
+        final long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram [count=" + getCount() + ", mean=" + getMean() + ", p50="
+                + getValueAtPercentile(50) + ", p99=" + getValueAtPercentile(99) + ", max=" + getMax() + "]";
+    }
+
+    public LatencyHistogram() {
+        super();
+        this.locks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            this.locks[i] = new Object();
+        }
+        this.counts = new long[BUCKETS];
+        this.sums = new long[BUCKETS];
+        this.maxima = new long[BUCKETS];
+    }
+
+}
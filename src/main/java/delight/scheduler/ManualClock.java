@@ -0,0 +1,29 @@
+package delight.scheduler;
+
+/**
+ * A clock which only advances when told to, for deterministic tests of
+ * timeouts.
+ *
+ */
+public final class ManualClock implements Clock {
+
+    private volatile long now;
+
+    @Override
+    public long millis() {
+        return now;
+    }
+
+    public synchronized void advance(final long ms) {
+        if (ms < 0) {
+            throw new IllegalArgumentException("Clock cannot go backwards: " + ms);
+        }
+        now = now + ms;
+    }
+
+    public ManualClock() {
+        super();
+        this.now = 0;
+    }
+
+}
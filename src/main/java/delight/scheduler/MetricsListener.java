@@ -0,0 +1,49 @@
+package delight.scheduler;
+
+/**
+ * Receives measurements from schedulers, access threads, queue workers and
+ * time enforcers. A listener can be set and removed at runtime; components
+ * without a listener do not take any measurements.
+ * <p>
+ * Listeners are called on the threads of the component and must return
+ * quickly.
+ *
+ * @see MetricsRecorder
+ */
+public interface MetricsListener {
+
+    /**
+     * Work has been added to the queue of the source.
+     * 
+     * @param source
+     * @param queueDepth
+     *            The number of items in the queue after adding, if known;
+     *            otherwise <code>-1</code>.
+     */
+    public void onEnqueued(Object source, int queueDepth);
+
+    /**
+     * Work has been taken from the queue and started.
+     * 
+     * @param source
+     * @param queueWaitNanos
+     *            How long the work has waited in the queue.
+     */
+    public void onStarted(Object source, long queueWaitNanos);
+
+    public void onCompleted(Object source, long executionNanos);
+
+    public void onFailed(Object source, long executionNanos);
+
+    public void onTimedOut(Object source);
+
+    /**
+     * The callback for completed work has been called.
+     * 
+     * @param source
+     * @param dispatchLagNanos
+     *            The time between completion and calling the callback.
+     */
+    public void onCallbackDispatched(Object source, long dispatchLagNanos);
+
+}
@@ -0,0 +1,184 @@
+package delight.scheduler;
+
+/**
+ * A {@link MetricsListener} which aggregates all measurements into counters
+ * and {@link LatencyHistogram}s. One recorder can be shared by several
+ * components to aggregate their measurements.
+ *
+ */
+public final class MetricsRecorder implements MetricsListener {
+
+    private final LatencyHistogram queueWait;
+    private final LatencyHistogram executionTime;
+    private final LatencyHistogram callbackLag;
+
+    /**
+     * Every kind of event is counted under a lock of its own, so that
+     * components reporting different events do not contend.
+     */
+    private final Object enqueueLock;
+    private final Object completionLock;
+    private final Object failureLock;
+    private final Object timeoutLock;
+
+    private long enqueued;
+    private long completed;
+    private long failed;
+    private long timedOut;
+    private int queueDepth;
+    private int maxQueueDepth;
+    private long since;
+
+    @Override
+    public void onEnqueued(final Object source, final int depth) {
+        synchronized (enqueueLock) {
+            enqueued++;
+            if (depth >= 0) {
+                queueDepth = depth;
+                if (depth > maxQueueDepth) {
+                    maxQueueDepth = depth;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onStarted(final Object source, final long queueWaitNanos) {
+        queueWait.record(queueWaitNanos);
+    }
+
+    @Override
+    public void onCompleted(final Object source, final long executionNanos) {
+        executionTime.record(executionNanos);
+        synchronized (completionLock) {
+            completed++;
+        }
+    }
+
+    @Override
+    public void onFailed(final Object source, final long executionNanos) {
+        executionTime.record(executionNanos);
+        synchronized (failureLock) {
+            failed++;
+        }
+    }
+
+    @Override
+    public void onTimedOut(final Object source) {
+        synchronized (timeoutLock) {
+            timedOut++;
+        }
+    }
+
+    @Override
+    public void onCallbackDispatched(final Object source, final long dispatchLagNanos) {
+        callbackLag.record(dispatchLagNanos);
+    }
+
+    public LatencyHistogram getQueueWait() {
+        return queueWait;
+    }
+
+    public LatencyHistogram getExecutionTime() {
+        return executionTime;
+    }
+
+    public LatencyHistogram getCallbackLag() {
+        return callbackLag;
+    }
+
+    public long getEnqueued() {
+        synchronized (enqueueLock) {
+            return enqueued;
+        }
+    }
+
+    /**
+     * @return The number of items enqueued per second since this recorder was
+     *         created or reset.
+     */
+    public double getEnqueueRate() {
+        synchronized (enqueueLock) {
+            final long elapsed = Clocks.monotonic().millis() - since;
+            if (elapsed <= 0) {
+                return 0;
+            }
+            return enqueued * 1000.0 / elapsed;
+        }
+    }
+
+    public long getCompleted() {
+        synchronized (completionLock) {
+            return completed;
+        }
+    }
+
+    public long getFailed() {
+        synchronized (failureLock) {
+            return failed;
+        }
+    }
+
+    public long getTimedOut() {
+        synchronized (timeoutLock) {
+            return timedOut;
+        }
+    }
+
+    /**
+     * @return The queue depth reported with the last enqueued item.
+     */
+    public int getQueueDepth() {
+        synchronized (enqueueLock) {
+            return queueDepth;
+        }
+    }
+
+    public int getMaxQueueDepth() {
+        synchronized (enqueueLock) {
+            return maxQueueDepth;
+        }
+    }
+
+    public void reset() {
+        queueWait.reset();
+        executionTime.reset();
+        callbackLag.reset();
+        synchronized (enqueueLock) {
+            enqueued = 0;
+            queueDepth = 0;
+            maxQueueDepth = 0;
+            since = Clocks.monotonic().millis();
+        }
+        synchronized (completionLock) {
+            completed = 0;
+        }
+        synchronized (failureLock) {
+            failed = 0;
+        }
+        synchronized (timeoutLock) {
+            timedOut = 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MetricsRecorder [enqueued=" + getEnqueued() + ", completed=" + getCompleted() + ", failed="
+                + getFailed() + ", timedOut=" + getTimedOut() + ", maxQueueDepth=" + getMaxQueueDepth()
+                + ", queueWait=" + queueWait + ", executionTime=" + executionTime + ", callbackLag=" + callbackLag
+                + "]";
+    }
+
+    public MetricsRecorder() {
+        super();
+        this.queueWait = new LatencyHistogram();
+        this.executionTime = new LatencyHistogram();
+        this.callbackLag = new LatencyHistogram();
+        this.enqueueLock = new Object();
+        this.completionLock = new Object();
+        this.failureLock = new Object();
+        this.timeoutLock = new Object();
+        this.since = Clocks.monotonic().millis();
+    }
+
+}
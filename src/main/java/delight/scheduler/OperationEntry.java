@@ -5,9 +5,18 @@ import delight.async.callbacks.ValueCallback;
 
 public class OperationEntry<R> {
 
-    public final Operation<R> operation;
-    public final ValueCallback<R> callback;
-    public final long startTime;
+    public Operation<R> operation;
+    public ValueCallback<R> callback;
+    /**
+     * When the operation was scheduled, in ms of the {@link Clock} of the
+     * scheduler.
+     */
+    public long startTime;
+
+    /**
+     * The pending timeout of this operation, if it is subject to one.
+     */
+    volatile TimeoutWheel.Timeout timeout;
 
     public OperationEntry(final Operation<R> operation, final long startTime, final ValueCallback<R> callback) {
         super();
@@ -16,6 +25,19 @@ public class OperationEntry<R> {
         this.startTime = startTime;
     }
 
+    /**
+     * Assigns a new operation to this entry so that it can be reused.
+     * 
+     * @param operation
+     * @param startTime
+     * @param callback
+     */
+    void init(final Operation<R> operation, final long startTime, final ValueCallback<R> callback) {
+        this.operation = operation;
+        this.callback = callback;
+        this.startTime = startTime;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
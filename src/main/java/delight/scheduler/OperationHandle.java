@@ -0,0 +1,19 @@
+package delight.scheduler;
+
+/**
+ * Allows the caller to withdraw an operation it has scheduled.
+ *
+ */
+public interface OperationHandle {
+
+    /**
+     * Withdraws the operation. An operation which has not been started yet is
+     * not run at all and {@link CancelledOperationException} is reported to
+     * its callback. A running {@link CancellableOperation} has its token
+     * cancelled and reports its result itself.
+     *
+     * @return <code>false</code> if the operation had already completed.
+     */
+    public boolean cancel();
+
+}
@@ -0,0 +1,37 @@
+package delight.scheduler;
+
+/**
+ * What a {@link SequentialOperationScheduler} does with an operation that is
+ * scheduled while the number of pending operations has reached the capacity
+ * of the scheduler.
+ *
+ * @see SequentialOperationScheduler#setCapacity(int, OverflowPolicy)
+ */
+public enum OverflowPolicy {
+
+    /**
+     * The operation is rejected with a {@link RejectedOperationException}.
+     */
+    REJECT,
+
+    /**
+     * The scheduling thread waits until capacity becomes available, using the
+     * {@link CapacityWaiter} of the scheduler. The operation is rejected if no
+     * capacity becomes available in time or no waiter has been set.
+     */
+    BLOCK,
+
+    /**
+     * The oldest pending operation is removed and reported as failed with a
+     * {@link RejectedOperationException} to make room for the new operation.
+     */
+    DROP_OLDEST,
+
+    /**
+     * The operation is run directly on the scheduling thread. It is not
+     * ordered with respect to the pending operations and not subject to the
+     * timeout of the scheduler.
+     */
+    CALLER_RUNS
+
+}
@@ -3,95 +3,165 @@ package delight.scheduler;
 import delight.async.Operation;
 import delight.async.callbacks.SimpleCallback;
 import delight.async.callbacks.ValueCallback;
-
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
-
+import delight.concurrency.Concurrency;
+import delight.simplelog.Log;
+
+/**
+ * Reports operations as failed if they do not complete within a timeout.
+ * <p>
+ * Every operation in flight holds a handle on a {@link TimeoutWheel}, so
+ * starting, completing and expiring an operation are O(1) and only lock a
+ * single bucket of the wheel. Expired operations are reported through the
+ * {@link CallbackDispatcher}, so that callbacks never run on the timer of the
+ * wheel.
+ * <p>
+ * The token of a {@link CancellableOperation} is cancelled when it times out.
+ *
+ */
 public final class ParallelRequestTimeEnforcer {
 
-    private final List<OperationEntry<Object>> currentOperations;
-    private final long timeout;
+    private final TimeoutWheel timeoutWheel;
+    private final int timeout;
 
-    private final void checkForTimedOutOperations() {
-        // currentOperations should already be synchronized
+    private volatile MetricsListener metricsListener;
+    private volatile CallbackDispatcher callbackDispatcher;
 
-        final long now = System.currentTimeMillis();
+    /**
+     * Runs the operation and reports a failure to the callback if it does not
+     * complete in time.
+     * 
+     * @return Allows to withdraw the operation, which reports
+     *         {@link CancelledOperationException} to the callback right away.
+     */
+    public <R> OperationHandle perform(final Operation<R> operation, final ValueCallback<R> callback) {
+        final MetricsListener metrics = metricsListener;
+        final long startedAt = metrics != null ? System.nanoTime() : 0;
 
-        final List<OperationEntry<Object>> toDelete = new ArrayList<OperationEntry<Object>>(0);
+        @SuppressWarnings("unchecked")
+        final OperationEntry<Object> operationEntry = (OperationEntry<Object>) new OperationEntry<R>(operation, 0,
+                callback);
+        final CancellationToken token = operation instanceof CancellableOperation ? new CancellationToken() : null;
 
-        for (final OperationEntry<Object> currentOperation : currentOperations) {
-            final long duration = now - currentOperation.startTime;
+        operationEntry.timeout = timeoutWheel.schedule(timeout, new Runnable() {
 
-            if (duration > timeout) {
-                toDelete.add(currentOperation);
-                currentOperation.callback
-                        .onFailure(new Exception("Operation <" + currentOperation.operation + "> has timed out."));
+            @Override
+            public void run() {
+                callbackDispatcher.dispatch(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        if (metrics != null) {
+                            metrics.onTimedOut(ParallelRequestTimeEnforcer.this);
+                        }
+                        if (token != null) {
+                            token.cancel();
+                        }
+                        operationEntry.callback.onFailure(
+                                new Exception("Operation <" + operationEntry.operation + "> has timed out."));
+                    }
+                });
             }
-        }
-
-        for (final OperationEntry<Object> deleteOperation : toDelete) {
-            currentOperations.remove(deleteOperation);
-        }
-
-    }
-
-    public <R> void perform(final Operation<R> operation, final ValueCallback<R> callback) {
-        @SuppressWarnings("unchecked")
-        final OperationEntry<Object> operationEntry = (OperationEntry<Object>) new OperationEntry<R>(operation,
-                System.currentTimeMillis(), callback);
+        });
 
-        synchronized (currentOperations) {
-            checkForTimedOutOperations();
-            currentOperations.add(operationEntry);
+        if (metrics != null) {
+            metrics.onStarted(this, 0);
         }
 
-        operation.apply(new ValueCallback<R>() {
+        final ValueCallback<R> enforced = new ValueCallback<R>() {
 
             @Override
             public void onFailure(final Throwable t) {
 
-                boolean operationExists;
-                synchronized (currentOperations) {
-                    operationExists = currentOperations.remove(operationEntry);
-                }
-
-                if (operationExists) {
+                if (operationEntry.timeout.cancel()) {
+                    if (metrics != null) {
+                        metrics.onFailed(ParallelRequestTimeEnforcer.this, System.nanoTime() - startedAt);
+                    }
                     callback.onFailure(t);
                     return;
                 }
 
-                System.err.println(this + ": Operation already terminated. Cannot report failure: " + t.getMessage());
+                Log.warn(ParallelRequestTimeEnforcer.this,
+                        "Operation already terminated. Cannot report failure: " + t.getMessage(), t);
             }
 
             @Override
             public void onSuccess(final R value) {
-                boolean operationExists;
-                synchronized (currentOperations) {
-                    operationExists = currentOperations.remove(operationEntry);
-                }
 
-                if (operationExists) {
+                if (operationEntry.timeout.cancel()) {
+                    if (metrics != null) {
+                        metrics.onCompleted(ParallelRequestTimeEnforcer.this, System.nanoTime() - startedAt);
+                    }
                     callback.onSuccess(value);
                     return;
                 }
 
-                System.err.println(
-                        this + ": Operation already terminated. Cannot report success for " + operationEntry.callback);
+                Log.warn(ParallelRequestTimeEnforcer.this,
+                        "Operation already terminated. Cannot report success for " + operationEntry.callback);
 
             }
-        });
+        };
 
+        if (token != null) {
+            ((CancellableOperation<R>) operation).apply(token, enforced);
+        } else {
+            operation.apply(enforced);
+        }
+
+        return new OperationHandle() {
+
+            @Override
+            public boolean cancel() {
+                if (!operationEntry.timeout.cancel()) {
+                    return false;
+                }
+                if (token != null) {
+                    token.cancel();
+                }
+                if (metrics != null) {
+                    metrics.onFailed(ParallelRequestTimeEnforcer.this, System.nanoTime() - startedAt);
+                }
+                callback.onFailure(
+                        new CancelledOperationException("Operation <" + operationEntry.operation + "> has been cancelled."));
+                return true;
+            }
+        };
+
+    }
+
+    /**
+     * Reports measurements of this enforcer to the listener. Set to
+     * <code>null</code> to stop measuring.
+     * 
+     * @param listener
+     */
+    public void setMetricsListener(final MetricsListener listener) {
+        this.metricsListener = listener;
+    }
+
+    /**
+     * Sets how operations which have timed out are reported, see
+     * {@link CallbackDispatchers}. By default failures are reported from the
+     * shared dispatcher.
+     * 
+     * @param callbackDispatcher
+     */
+    public void setCallbackDispatcher(final CallbackDispatcher callbackDispatcher) {
+        this.callbackDispatcher = callbackDispatcher;
     }
 
     public void shutdown(final SimpleCallback callback) {
         callback.onSuccess();
     }
 
-    public ParallelRequestTimeEnforcer(final long timeout) {
+    public ParallelRequestTimeEnforcer(final long timeout, final Concurrency concurrency) {
+        this(timeout, TimeoutWheel.getShared(concurrency));
+    }
+
+    public ParallelRequestTimeEnforcer(final long timeout, final TimeoutWheel timeoutWheel) {
         super();
-        this.timeout = timeout;
-        this.currentOperations = new LinkedList<OperationEntry<Object>>();
+        this.timeout = (int) Math.min(timeout, Integer.MAX_VALUE);
+        this.timeoutWheel = timeoutWheel;
+        this.callbackDispatcher = CallbackDispatchers.shared(timeoutWheel.getConcurrency());
     }
 
 }
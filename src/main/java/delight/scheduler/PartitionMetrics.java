@@ -0,0 +1,58 @@
+package delight.scheduler;
+
+/**
+ * A snapshot of the load of one partition of a {@link PartitionedQueueWorker}.
+ *
+ */
+public final class PartitionMetrics {
+
+    private final int partition;
+    private final long offered;
+    private final long processed;
+    private final long batches;
+
+    public int getPartition() {
+        return partition;
+    }
+
+    /**
+     * @return The number of items routed to this partition.
+     */
+    public long getOffered() {
+        return offered;
+    }
+
+    public long getProcessed() {
+        return processed;
+    }
+
+    /**
+     * @return The number of calls to process items of this partition.
+     */
+    public long getBatches() {
+        return batches;
+    }
+
+    /**
+     * @return The number of items waiting to be processed.
+     */
+    public long getBacklog() {
+        final long backlog = offered - processed;
+        return backlog < 0 ? 0 : backlog;
+    }
+
+    @Override
+    public String toString() {
+        return "PartitionMetrics [partition=" + partition + ", offered=" + offered + ", processed=" + processed
+                + ", batches=" + batches + "]";
+    }
+
+    public PartitionMetrics(final int partition, final long offered, final long processed, final long batches) {
+        super();
+        this.partition = partition;
+        this.offered = offered;
+        this.processed = processed;
+        this.batches = batches;
+    }
+
+}
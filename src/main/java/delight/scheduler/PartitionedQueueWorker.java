@@ -0,0 +1,207 @@
+package delight.scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import delight.async.callbacks.ValueCallback;
+import delight.concurrency.Concurrency;
+import delight.concurrency.wrappers.SimpleAtomicBoolean;
+import delight.concurrency.wrappers.SimpleAtomicInteger;
+import delight.concurrency.wrappers.SimpleAtomicLong;
+import delight.functional.Success;
+
+/**
+ * Distributes items by their key over a number of partitions, which are
+ * processed in parallel. Items of one partition are processed sequentially,
+ * non-concurrently and in the order they were offered, as with a
+ * {@link SingleInstanceQueueWorker}. Items with the same key always end up in
+ * the same partition.
+ *
+ * @param <GItem>
+ */
+public abstract class PartitionedQueueWorker<GItem> {
+
+    private final Concurrency concurrency;
+    private final List<Partition> partitions;
+
+    /**
+     * @param item
+     * @return The key which determines the partition of the item.
+     */
+    protected abstract Object partitionKey(GItem item);
+
+    /**
+     * It is guaranteed that this method is only called by one thread at the
+     * time for each partition and that the items of a partition are forwarded
+     * FIFO how they were offered. The list is reused for the next batch and
+     * must not be retained.
+     * 
+     * @param partition
+     * @param items
+     */
+    protected abstract void processItems(int partition, List<GItem> items);
+
+    private final class Partition extends SingleInstanceQueueWorker<GItem> {
+
+        private final int index;
+        /**
+         * Written by all producers, guarded by itself.
+         */
+        private final SimpleAtomicLong offered;
+        private final SimpleAtomicLong processed;
+        private final SimpleAtomicLong batches;
+
+        @Override
+        protected void processItems(final List<GItem> items) {
+            // the counts are only written by the thread processing this partition
+            processed.set(processed.get() + items.size());
+            batches.set(batches.get() + 1);
+            PartitionedQueueWorker.this.processItems(index, items);
+        }
+
+        private PartitionMetrics getMetrics() {
+            return new PartitionMetrics(index, offered.get(), processed.get(), batches.get());
+        }
+
+        @SuppressWarnings("unchecked")
+        private Partition(final Object owner, final int index, final Concurrency con,
+                final WorkQueueFactory queueFactory, final WorkerPool workerPool) {
+            super(owner, (Queue<GItem>) (Queue<?>) queueFactory.newQueue(Object.class), con);
+            this.index = index;
+            this.offered = con.newAtomicLong(0);
+            this.processed = con.newAtomicLong(0);
+            this.batches = con.newAtomicLong(0);
+            if (workerPool != null) {
+                getThread().setWorkerPool(workerPool);
+            }
+        }
+
+    }
+
+    /**
+     * Schedules to process this item in the partition of its key.
+     * 
+     * @param item
+     */
+    public void offer(final GItem item) {
+        final Partition partition = partitions.get(partitionOf(partitionKey(item)));
+        synchronized (partition.offered) {
+            partition.offered.set(partition.offered.get() + 1);
+        }
+        partition.offer(item);
+    }
+
+    public int partitionOf(final Object key) {
+        final int h = key == null ? 0 : key.hashCode();
+        return ((h ^ (h >>> 16)) & 0x7fffffff) % partitions.size();
+    }
+
+    public int getPartitionCount() {
+        return partitions.size();
+    }
+
+    /**
+     * Sets the batching of every partition.
+     * 
+     * @see SingleInstanceQueueWorker#setBatching(int, int)
+     */
+    public void setBatching(final int maxBatchSize, final int maxLingerInMs) {
+        for (final Partition partition : partitions) {
+            partition.setBatching(maxBatchSize, maxLingerInMs);
+        }
+    }
+
+    /**
+     * @return The load of each partition.
+     */
+    public List<PartitionMetrics> getMetrics() {
+        final List<PartitionMetrics> metrics = new ArrayList<PartitionMetrics>(partitions.size());
+        for (final Partition partition : partitions) {
+            metrics.add(partition.getMetrics());
+        }
+        return metrics;
+    }
+
+    /**
+     * Indicates how unevenly items are distributed, for instance because of a
+     * few hot keys.
+     * 
+     * @return The number of items offered to the busiest partition divided by
+     *         the average number of items per partition; <code>1.0</code> if
+     *         the load is perfectly balanced.
+     */
+    public double getSkew() {
+        long total = 0;
+        long max = 0;
+        for (final Partition partition : partitions) {
+            final long offered = partition.offered.get();
+            total += offered;
+            if (offered > max) {
+                max = offered;
+            }
+        }
+        if (total == 0) {
+            return 1.0;
+        }
+        return max * partitions.size() / (double) total;
+    }
+
+    /**
+     * Shuts all partitions down in parallel; the callback is notified once all
+     * of them are shut down or on the first failure.
+     * 
+     * @param cb
+     */
+    public void shutdown(final ValueCallback<Success> cb) {
+        final SimpleAtomicInteger remaining = concurrency.newAtomicInteger(partitions.size());
+        final SimpleAtomicBoolean reported = concurrency.newAtomicBoolean(false);
+        for (final Partition partition : partitions) {
+            partition.shutdown(new ValueCallback<Success>() {
+
+                @Override
+                public void onSuccess(final Success value) {
+                    if (remaining.decrementAndGet() == 0 && reported.compareAndSet(false, true)) {
+                        cb.onSuccess(Success.INSTANCE);
+                    }
+                }
+
+                @Override
+                public void onFailure(final Throwable t) {
+                    if (reported.compareAndSet(false, true)) {
+                        cb.onFailure(t);
+                    }
+                }
+            });
+        }
+    }
+
+    public PartitionedQueueWorker(final Object owner, final int partitionCount, final Concurrency con) {
+        this(owner, partitionCount, con, WorkQueues.threadSafe(con), null);
+    }
+
+    /**
+     * 
+     * @param owner
+     * @param partitionCount
+     * @param con
+     * @param queueFactory
+     *            Creates the queue of each partition.
+     * @param workerPool
+     *            The pool to process the partitions on or <code>null</code>
+     *            to use a thread for each partition.
+     */
+    public PartitionedQueueWorker(final Object owner, final int partitionCount, final Concurrency con,
+            final WorkQueueFactory queueFactory, final WorkerPool workerPool) {
+        super();
+        if (partitionCount <= 0) {
+            throw new IllegalArgumentException("At least one partition is required: " + partitionCount);
+        }
+        this.concurrency = con;
+        this.partitions = new ArrayList<Partition>(partitionCount);
+        for (int i = 0; i < partitionCount; i++) {
+            this.partitions.add(new Partition(owner, i, con, queueFactory, workerPool));
+        }
+    }
+
+}
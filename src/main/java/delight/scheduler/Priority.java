@@ -0,0 +1,28 @@
+package delight.scheduler;
+
+/**
+ * The priority classes of operations scheduled on a
+ * {@link SequentialOperationScheduler}. Pending operations of a higher
+ * priority are run first; operations of a lower priority which have waited
+ * longer than the aging threshold of the scheduler are run before them.
+ *
+ * @see SequentialOperationScheduler#setAgingThreshold(int)
+ */
+public enum Priority {
+
+    /**
+     * For latency critical operations, such as interactive reads.
+     */
+    HIGH,
+
+    /**
+     * The priority of operations scheduled without a priority.
+     */
+    NORMAL,
+
+    /**
+     * For background work, such as bulk synchronisation.
+     */
+    LOW
+
+}
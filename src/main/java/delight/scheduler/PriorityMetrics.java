@@ -0,0 +1,69 @@
+package delight.scheduler;
+
+/**
+ * A snapshot of the queue of one {@link Priority} of a
+ * {@link SequentialOperationScheduler}.
+ *
+ */
+public final class PriorityMetrics {
+
+    private final Priority priority;
+    private final int depth;
+    private final long dequeued;
+    private final long totalWaitTime;
+    private final long maxWaitTime;
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return The number of operations waiting to be run.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return The number of operations which have been taken from the queue
+     *         to be run.
+     */
+    public long getDequeued() {
+        return dequeued;
+    }
+
+    /**
+     * @return The sum of the time in ms the dequeued operations have waited.
+     */
+    public long getTotalWaitTime() {
+        return totalWaitTime;
+    }
+
+    public long getMaxWaitTime() {
+        return maxWaitTime;
+    }
+
+    public long getAverageWaitTime() {
+        if (dequeued == 0) {
+            return 0;
+        }
+        return totalWaitTime / dequeued;
+    }
+
+    @Override
+    public String toString() {
+        return "PriorityMetrics [priority=" + priority + ", depth=" + depth + ", dequeued=" + dequeued
+                + ", totalWaitTime=" + totalWaitTime + ", maxWaitTime=" + maxWaitTime + "]";
+    }
+
+    public PriorityMetrics(final Priority priority, final int depth, final long dequeued, final long totalWaitTime,
+            final long maxWaitTime) {
+        super();
+        this.priority = priority;
+        this.depth = depth;
+        this.dequeued = dequeued;
+        this.totalWaitTime = totalWaitTime;
+        this.maxWaitTime = maxWaitTime;
+    }
+
+}
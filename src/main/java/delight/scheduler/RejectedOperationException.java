@@ -0,0 +1,15 @@
+package delight.scheduler;
+
+/**
+ * Reported for operations which a scheduler did not accept or dropped before
+ * running them.
+ */
+public class RejectedOperationException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    public RejectedOperationException(final String message) {
+        super(message);
+    }
+
+}
@@ -1,31 +1,71 @@
 package delight.scheduler;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 
-import delight.async.AsyncCommon;
 import delight.async.Operation;
 import delight.async.Value;
+import delight.async.callbacks.SimpleCallback;
 import delight.async.callbacks.ValueCallback;
 import delight.concurrency.Concurrency;
 import delight.concurrency.wrappers.SimpleAtomicBoolean;
 import delight.concurrency.wrappers.SimpleAtomicInteger;
 import delight.concurrency.wrappers.SimpleAtomicLong;
 import delight.concurrency.wrappers.SimpleExecutor;
-import delight.functional.Closure;
 import delight.functional.Success;
-import delight.simplelog.Field;
 import delight.simplelog.Log;
 
 public final class SequentialOperationScheduler {
 
-	private static final boolean ENABLE_TRACE = false;
-	private static final boolean ENABLE_METRICS = false;
+	public static final int DEFAULT_AGING_THRESHOLD = 1000;
 
-	@SuppressWarnings("rawtypes")
-	private final Queue<OperationEntry> scheduled;
-	private final SimpleExecutor operationExecutor;
+	/**
+	 * One lane of scheduled operations per {@link Priority}, highest first.
+	 */
+	private final Lane[] lanes;
+	/**
+	 * The number of operations in all lanes.
+	 */
+	private final SimpleAtomicInteger pendingCount;
+
+	private int agingThreshold;
+
+	/**
+	 * Set once an operation of a priority other than {@link Priority#NORMAL}
+	 * has been scheduled. Until then, aging and the wait times of the lanes
+	 * are not needed unless a {@link MetricsListener} or a slow operation
+	 * threshold is set, so that scheduling does not read the clock.
+	 */
+	private volatile boolean prioritiesUsed;
+
+	/**
+	 * The time an operation has been scheduled at if it was not measured.
+	 */
+	private static final long NOT_STAMPED = Long.MIN_VALUE;
+
+	/**
+	 * Operations scheduled with a coalescing key which have not been started
+	 * yet, guarded by itself.
+	 */
+	private final Map<Object, Execution> coalesced;
+
+	/**
+	 * The maximum number of pending operations; <code>0</code> if unbounded.
+	 */
+	private int capacity;
+	private OverflowPolicy overflowPolicy;
+	private CapacityWaiter capacityWaiter;
+	private int blockTimeout;
+	private final CapacityWaiter.Condition admission;
+
+	/**
+	 * Created when first required and no {@link WorkerPool} has been set.
+	 */
+	private volatile SimpleExecutor operationExecutor;
+	private WorkerPool workerPool;
 	// private final SimpleExecutor executorForTimeouts;
 
 	private final Concurrency concurrency;
@@ -34,21 +74,91 @@ public final class SequentialOperationScheduler {
 	private final SimpleAtomicBoolean shutDown;
 	private final SimpleAtomicInteger suspendCount;
 	private final SimpleAtomicBoolean operationInProgress;
-	private final SimpleAtomicLong lastRun;
 	private final Value<OperationEntry<Object>> currentOperation;
 
 	private boolean enforceOwnThread;
 
-	private final Value<ValueCallback<Success>> shutdownCallback;
+	/**
+	 * Interrupts operations on the operation thread which time out;
+	 * <code>null</code> to leave them running.
+	 */
+	private volatile Interrupter interrupter;
+
+	private int drainBatchSize;
+	private int drainTimeBudget;
+
+	/**
+	 * The execution whose {@link Operation#apply} the operation thread is
+	 * inside while it may take over the next operation without an executor
+	 * hop; <code>null</code> while closed. Guarded by drainSlot.
+	 */
+	private Execution drainSlotOwner;
+	private final Object drainSlot;
+
+	private static final int MAX_POOLED_EXECUTIONS = 64;
+
+	private boolean recycleEntries;
+
+	/**
+	 * Head of the free list of executions, guarded by itself.
+	 */
+	private final Execution executionPool;
+	private int pooledExecutions;
+
+	/**
+	 * Notified once the scheduler is shut down, guarded by itself.
+	 */
+	private final List<ValueCallback<Success>> shutdownCallbacks;
+
+	private static final int DRAIN = 0;
+	private static final int REJECT_QUEUED = 1;
+	private static final int RETURN_QUEUED = 2;
+
+	/**
+	 * What happens to queued operations while shutting down: they are run,
+	 * rejected or collected into {@link #unexecuted}.
+	 */
+	private volatile int shutdownMode;
+	private final List<OperationEntry<Object>> unexecuted;
 
 	private int timeout;
 
-	private final SimpleExecutor callbackExecutor;
+	private TimeoutWheel timeoutWheel;
+
+	/**
+	 * Measures queue wait, aging and time budgets.
+	 */
+	private Clock clock;
+
+	/**
+	 * Only created if no {@link CallbackDispatcher} has been set.
+	 */
+	private volatile SimpleExecutor callbackExecutor;
+	private CallbackDispatcher callbackDispatcher;
 
 	private final Object owner;
 
-	private volatile long totalRuntime;
+	private volatile MetricsListener metricsListener;
+
+	/**
+	 * The tracer set by the user combined with the log tracer while logging
+	 * is enabled.
+	 */
+	private volatile Tracer tracer;
+	private Tracer userTracer;
+
+	private static final int MAX_SLOW_OPERATION_REPORTS = 16;
 
+	private int slowOperationThreshold;
+	private StackSampler stackSampler;
+	/**
+	 * The most recent reports, oldest first, guarded by itself.
+	 */
+	private final List<SlowOperationReport> slowOperationReports;
+
+	/**
+	 * Prints the progress of shutting down.
+	 */
 	private boolean enableLog;
 
 	public boolean isRunning() {
@@ -82,340 +192,1655 @@ public final class SequentialOperationScheduler {
 		runIfRequired(enforceOwnThread);
 	}
 
-	@SuppressWarnings("unchecked")
-	public <R> void schedule(final Operation<R> operation, final ValueCallback<R> callback) {
+	/**
+	 * Schedules the operation to be run after all operations scheduled before
+	 * it.
+	 * 
+	 * @return Allows to withdraw the operation.
+	 * @throws RejectedOperationException
+	 *             If the scheduler is at capacity and the
+	 *             {@link OverflowPolicy} does not allow to accept the operation.
+	 */
+	public <R> OperationHandle schedule(final Operation<R> operation, final ValueCallback<R> callback) {
+		return schedule(Priority.NORMAL, operation, callback);
+	}
+
+	/**
+	 * Schedules the operation to be run after all operations of the same
+	 * priority scheduled before it.
+	 * <p>
+	 * Operations cancelled through the returned handle before they are started
+	 * stay in their lane until they reach its head, where they are discarded
+	 * without running.
+	 * 
+	 * @return Allows to withdraw the operation.
+	 * @throws RejectedOperationException
+	 *             If the scheduler is at capacity and the
+	 *             {@link OverflowPolicy} does not allow to accept the operation.
+	 */
+	public <R> OperationHandle schedule(final Priority priority, final Operation<R> operation,
+			final ValueCallback<R> callback) {
 
 		if (shuttingDown.get()) {
-			throw new IllegalStateException("Trying to schedule operation for shutting down scheduler.");
+			throw new RejectedOperationException("Trying to schedule operation for shutting down scheduler.");
 		}
 
-		if (ENABLE_TRACE || enableLog) {
-			Log.println(this, "Add operation " + operation);
+		final int admitted = admit(true);
+		if (admitted == REJECTED) {
+			throw newRejectedException();
 		}
-		scheduled.add(new OperationEntry<Object>((Operation<Object>) operation, 0, new ValueCallback<Object>() {
-
-			@Override
-			public void onFailure(final Throwable t) {
-				callback.onFailure(t);
-			}
-
-			@Override
-			public void onSuccess(final Object value) {
-				callback.onSuccess((R) value);
-			}
-		}));
-		
-//		int pending = scheduled.size();
-//		if (pending > 400) {
-//			Log.info(this, "Many operations pending for "+this.owner+": "+pending, Field.define("pendingOperations", ""+pending));
-//		}
-		
-		runIfRequired(enforceOwnThread);
-
+		return enqueue(priority, operation, callback, admitted);
 	}
 
-	private final void runIfRequired(final boolean forceOwnThread) {
+	/**
+	 * Schedules the operation unless an operation with the same key is still
+	 * waiting to be run. In that case, the callback is attached to the waiting
+	 * operation and receives its result.
+	 * <p>
+	 * Operations which have already been started are not coalesced with, so the
+	 * operation is always started after this method is called.
+	 * 
+	 * @param key
+	 *            Identifies operations which are interchangeable.
+	 * @throws RejectedOperationException
+	 *             If the scheduler is at capacity and the
+	 *             {@link OverflowPolicy} does not allow to accept the operation.
+	 */
+	@SuppressWarnings("unchecked")
+	public <R> void scheduleCoalesced(final Object key, final Operation<R> operation, final ValueCallback<R> callback) {
 
-		if (suspendCount.get() > 0) {
-			if (ENABLE_TRACE || enableLog) {
-				Log.println(this, "Is suspended ...");
+		if (shuttingDown.get()) {
+			throw new RejectedOperationException("Trying to schedule operation for shutting down scheduler.");
+		}
+
+		synchronized (coalesced) {
+			final Execution pending = coalesced.get(key);
+			if (pending != null) {
+				((CoalescedCallback) pending.callback).callbacks.add((ValueCallback<Object>) callback);
+				return;
 			}
-			return;
 		}
 
-		if (ENABLE_TRACE || enableLog) {
-			Log.println(this, "Test run required. Is in progress: " + operationInProgress.get());
+		final int admitted = admit(true);
+		if (admitted == REJECTED) {
+			throw newRejectedException();
+		}
+		if (admitted == RUN_BY_CALLER) {
+			enqueue(Priority.NORMAL, operation, callback, admitted);
+			return;
 		}
 
-		if (!operationInProgress.compareAndSet(false, true)) {
-			final long lastRunVal = lastRun.get();
-			if (ENABLE_TRACE || enableLog) {
-				Log.println(this, "Last Run " + lastRunVal);
+		final Execution execution = obtainExecution();
+		execution.prepare((Operation<Object>) operation, new CoalescedCallback((ValueCallback<Object>) callback),
+				scheduledAt());
+		execution.coalescingKey = key;
+
+		synchronized (coalesced) {
+			final Execution pending = coalesced.get(key);
+			if (pending != null) {
+				// scheduled concurrently
+				((CoalescedCallback) pending.callback).callbacks.add((ValueCallback<Object>) callback);
+				if (recycleEntries) {
+					recycle(execution);
+				}
+				releaseCapacity();
+				return;
 			}
-			if (lastRunVal != -1) {
-				final long now = System.currentTimeMillis();
+			coalesced.put(key, execution);
+		}
 
-				if (ENABLE_TRACE || enableLog) {
-					Log.println(this, "Duration of last pending operation " + (now - lastRunVal));
-				}
+		add(Priority.NORMAL, execution);
+	}
 
-				if (now - lastRunVal > timeout) {
-					operationInProgress.set(false);
-					lastRun.set(-1);
+	/**
+	 * The callbacks of all requests coalesced into one operation. Callbacks are
+	 * only attached while the operation is waiting to be run.
+	 */
+	private static final class CoalescedCallback implements ValueCallback<Object> {
 
-					Log.warn(this, "Scheduler timed out [owner: " + this.owner + ", currentOperation: "
-							+ this.currentOperation.get().operation + "]");
+		private final List<ValueCallback<Object>> callbacks;
 
-					currentOperation.get().callback.onFailure(new Exception("Operation timed out."));
-					currentOperation.set(null);
+		@Override
+		public void onFailure(final Throwable t) {
+			for (final ValueCallback<Object> callback : callbacks) {
+				callback.onFailure(t);
+			}
+		}
 
-					performRun();
-				}
+		@Override
+		public void onSuccess(final Object value) {
+			for (final ValueCallback<Object> callback : callbacks) {
+				callback.onSuccess(value);
 			}
+		}
 
-			return;
+		private CoalescedCallback(final ValueCallback<Object> first) {
+			super();
+			this.callbacks = new ArrayList<ValueCallback<Object>>(2);
+			this.callbacks.add(first);
 		}
-		performRun();
 
 	}
 
-	@SuppressWarnings("unchecked")
-	private void performRun() {
-		if (ENABLE_TRACE || enableLog) {
-			Log.println(this, "Perform run. Is in progress: " + operationInProgress.get());
+	private final void detachCoalesced(final Execution execution) {
+		synchronized (coalesced) {
+			coalesced.remove(execution.coalescingKey);
 		}
+	}
 
-		OperationEntry<Object> entry = null;
+	/**
+	 * Schedules the operation if the scheduler accepts it without blocking.
+	 * Otherwise the rejection is reported to the callback.
+	 * 
+	 * @return <code>true</code> if the operation was accepted.
+	 */
+	public <R> boolean trySchedule(final Operation<R> operation, final ValueCallback<R> callback) {
+		return trySchedule(Priority.NORMAL, operation, callback);
+	}
 
-		entry = scheduled.poll();
+	/**
+	 * Schedules the operation with the specified priority if the scheduler
+	 * accepts it without blocking. Otherwise the rejection is reported to the
+	 * callback.
+	 * 
+	 * @return <code>true</code> if the operation was accepted.
+	 */
+	public <R> boolean trySchedule(final Priority priority, final Operation<R> operation,
+			final ValueCallback<R> callback) {
 
-		if (entry == null) {
-			operationInProgress.set(false);
-			tryShutdown();
-			return;
+		if (shuttingDown.get()) {
+			callback.onFailure(new RejectedOperationException("Trying to schedule operation for shutting down scheduler."));
+			return false;
 		}
 
-		lastRun.set(System.currentTimeMillis());
+		final int admitted = admit(false);
+		if (admitted == REJECTED) {
+			callback.onFailure(newRejectedException());
+			return false;
+		}
+		enqueue(priority, operation, callback, admitted);
+		return true;
+	}
 
-		if (!enforceOwnThread) {
+	private static final int ADMITTED = 0;
+	private static final int REJECTED = 1;
+	private static final int RUN_BY_CALLER = 2;
 
-			executeWithTimeout(entry);
-		} else {
-			final OperationEntry<Object> entryClosed = entry;
-			operationExecutor.execute(new Runnable() {
+	/**
+	 * Takes up capacity for a new operation, applying the overflow policy if
+	 * the scheduler is full.
+	 */
+	private final int admit(final boolean mayBlock) {
+		if (capacity <= 0) {
+			pendingCount.incrementAndGet();
+			return ADMITTED;
+		}
 
-				@Override
-				public void run() {
-					executeWithTimeout(entryClosed);
-				}
+		if (admission.tryAcquire()) {
+			return ADMITTED;
+		}
 
-			});
+		switch (overflowPolicy) {
+		case BLOCK:
+			final CapacityWaiter waiter = capacityWaiter;
+			if (mayBlock && waiter != null && waiter.await(admission, blockTimeout)) {
+				return ADMITTED;
+			}
+			return REJECTED;
+		case DROP_OLDEST:
+			pendingCount.incrementAndGet();
+			dropOldest();
+			return ADMITTED;
+		case CALLER_RUNS:
+			return RUN_BY_CALLER;
+		default:
+			return REJECTED;
 		}
 	}
 
-	private final void executeWithTimeout(final OperationEntry<Object> entry) {
-		final SimpleAtomicBoolean operationCompleted = concurrency.newAtomicBoolean(false);
-
-		executeOperation(entry, operationCompleted);
-		if (operationCompleted.get()) {
-			return;
+	private final boolean tryAcquireCapacity() {
+		if (pendingCount.incrementAndGet() <= capacity) {
+			return true;
 		}
-
+		pendingCount.decrementAndGet();
+		return false;
 	}
 
-	private void executeOperation(final OperationEntry<Object> entryClosed,
-			final SimpleAtomicBoolean operationCompleted) {
-
-		if (ENABLE_TRACE || enableLog) {
-			Log.println(this, "Execute operation " + entryClosed.operation);
+	/**
+	 * Drops the oldest operation of the lowest priority.
+	 */
+	private final void dropOldest() {
+		Execution oldest = null;
+		synchronized (lanes) {
+			for (int i = lanes.length - 1; i >= 0 && oldest == null; i--) {
+				oldest = lanes[i].queue.poll();
+				if (oldest != null) {
+					lanes[i].depth.decrementAndGet();
+				}
+			}
 		}
-
-		long startTmp = 0;
-
-		if (ENABLE_METRICS) {
-			startTmp = System.currentTimeMillis();
+		if (oldest == null) {
+			// taken by the operation thread in the meantime
+			return;
+		}
+		pendingCount.decrementAndGet();
+		if (oldest.coalescingKey != null) {
+			detachCoalesced(oldest);
+		}
+		if (!oldest.started.compareAndSet(false, true)) {
+			// cancelled before; its callback has already been notified
+			return;
 		}
 
-		final long start = startTmp;
-		try {
-			currentOperation.set(entryClosed);
-			entryClosed.operation.apply(new ValueCallback<Object>() {
-
-				@Override
-				public void onFailure(final Throwable t) {
-					if (ENABLE_TRACE || enableLog) {
-						Log.println(this, "Operation failed: " + entryClosed.operation);
-					}
+		final Tracer tracer = this.tracer;
+		if (tracer != null) {
+			tracer.trace(TraceEvent.DROPPED, this, oldest.operation);
+		}
 
-					operationInProgress.set(false);
-					// lastRun.set(-1);
+		oldest.recyclable = false;
+		oldest.failure = new RejectedOperationException("Operation dropped since scheduler is at capacity [" + capacity + "].");
+		dispatchCallback(oldest);
+	}
 
-					runIfRequired(true);
+	private final void releaseCapacity() {
+		pendingCount.decrementAndGet();
+		final CapacityWaiter waiter = capacityWaiter;
+		if (waiter != null) {
+			waiter.signal();
+		}
+	}
 
-					callbackExecutor.execute(new Runnable() {
+	private final RejectedOperationException newRejectedException() {
+		return new RejectedOperationException("Operation rejected since scheduler is at capacity [" + capacity + "].");
+	}
 
-						@Override
-						public void run() {
-							if (operationCompleted.get()) {
-								// System.out.println(this + " FAIL EX");
-								Log.warn(this, "Operation [" + entryClosed.operation
-										+ "] failed. Callback cannot be triggered, it was already triggered. Error reported: ["+t.getMessage()+"]", t);
-								
-							}
-							operationCompleted.set(true);
-
-							entryClosed.callback.onFailure(t);
-						}
-					});
+	/**
+	 * Returned for operations run by the caller, which are complete once
+	 * scheduled.
+	 */
+	private static final OperationHandle COMPLETED_HANDLE = new OperationHandle() {
 
-				}
+		@Override
+		public boolean cancel() {
+			return false;
+		}
+	};
 
-				@Override
-				public void onSuccess(final Object value) {
-					if (ENABLE_TRACE || enableLog) {
-						Log.println(
-								SequentialOperationScheduler.this, "Operation successful: " + entryClosed.operation);
+	@SuppressWarnings("unchecked")
+	private final <R> OperationHandle enqueue(final Priority priority, final Operation<R> operation,
+			final ValueCallback<R> callback, final int admitted) {
+
+		if (admitted == RUN_BY_CALLER) {
+			final Tracer tracer = this.tracer;
+			final ValueCallback<R> traced;
+			if (tracer != null) {
+				tracer.trace(TraceEvent.STARTED, this, operation);
+				traced = new ValueCallback<R>() {
+
+					@Override
+					public void onFailure(final Throwable t) {
+						tracer.trace(TraceEvent.FAILED, SequentialOperationScheduler.this, operation);
+						callback.onFailure(t);
 					}
 
-					if (ENABLE_METRICS) {
-						totalRuntime += System.currentTimeMillis() - start;
-						// MetricsCommon.get()
-						// .record(MetricsCommon.value("scheduler." + owner,
-						// System.currentTimeMillis() - start));
+					@Override
+					public void onSuccess(final R value) {
+						tracer.trace(TraceEvent.COMPLETED, SequentialOperationScheduler.this, operation);
+						callback.onSuccess(value);
 					}
+				};
+			} else {
+				traced = callback;
+			}
+			try {
+				operation.apply(traced);
+			} catch (final Throwable t) {
+				traced.onFailure(t);
+			}
+			return COMPLETED_HANDLE;
+		}
 
-					if (currentOperation.get() != entryClosed) {
-
-						Log.println(SequentialOperationScheduler.this,
-								"Don't call callback since operation was cancelled and onFailure already called: "
-										+ entryClosed.operation);
+		if (priority != Priority.NORMAL && !prioritiesUsed) {
+			prioritiesUsed = true;
+		}
 
-						return;
-					}
+		final Execution execution = obtainExecution();
+		execution.prepare((Operation<Object>) operation, (ValueCallback<Object>) callback, scheduledAt());
+		// read before the execution can complete and be reused
+		final int generation = execution.generation;
+		add(priority, execution);
+		if (recycleEntries) {
+			return new RecycledHandle(execution, generation);
+		}
+		return execution;
+	}
 
-					operationInProgress.set(false);
+	/**
+	 * Returned while executions are recycled, so that cancelling an operation
+	 * which has already completed does not cancel a later operation reusing its
+	 * execution.
+	 */
+	private static final class RecycledHandle implements OperationHandle {
 
-					callbackExecutor.execute(new Runnable() {
+		private final Execution execution;
+		private final int generation;
 
-						@Override
-						public void run() {
-							if (operationCompleted.get()) {
-								throw new RuntimeException("Operation [" + entryClosed.operation
-										+ "] successful. Callback cannot be triggered, it was already triggered.");
-							}
-							operationCompleted.set(true);
+		@Override
+		public boolean cancel() {
+			return execution.cancel(generation);
+		}
 
-							entryClosed.callback.onSuccess(value);
-						}
-					});
+		private RecycledHandle(final Execution execution, final int generation) {
+			super();
+			this.execution = execution;
+			this.generation = generation;
+		}
+	}
 
-					runIfRequired(true);
+	/**
+	 * @return The current time if the time an operation waits is needed,
+	 *         otherwise {@link #NOT_STAMPED}.
+	 */
+	private final long scheduledAt() {
+		if (prioritiesUsed || metricsListener != null || slowOperationThreshold > 0) {
+			return clock.millis();
+		}
+		return NOT_STAMPED;
+	}
 
-				}
-			});
-		} catch (final Throwable t) {
+	private final void add(final Priority priority, final Execution execution) {
+		final MetricsListener metrics = metricsListener;
+		execution.enqueuedAt = metrics != null ? System.nanoTime() : 0;
 
-			operationInProgress.set(false);
+		final Lane lane = lanes[priority.ordinal()];
+		lane.queue.add(execution);
+		lane.depth.incrementAndGet();
 
-			runIfRequired(true);
+		if (metrics != null) {
+			metrics.onEnqueued(this, pendingCount.get());
+		}
 
-			callbackExecutor.execute(new Runnable() {
+		final Tracer tracer = this.tracer;
+		if (tracer != null) {
+			tracer.trace(TraceEvent.ENQUEUED, this, execution.operation);
+		}
 
-				@Override
-				public void run() {
-					operationCompleted.set(true);
-					entryClosed.callback.onFailure(t);
-				}
-			});
+		runIfRequired(enforceOwnThread);
 
-		}
 	}
 
-	public void shutdown(final ValueCallback<Success> cb) {
+	private final void runIfRequired(final boolean forceOwnThread) {
 
-		if (shuttingDown.get()) {
-			throw new IllegalStateException("Called shutdown for already shut down scheduler");
+		if (suspendCount.get() > 0) {
+			return;
 		}
 
-		shuttingDown.set(true);
-
-		shutdownCallback.set(cb);
+		if (!operationInProgress.compareAndSet(false, true)) {
+			// timeouts of the operation in progress are reported by the timeout wheel
+			return;
+		}
+		performRun();
 
-		tryShutdown();
 	}
 
-	private final void tryShutdown() {
-
-		if (ENABLE_TRACE || enableLog) {
-			Log.println(this, "->" + owner + ": Attempting shutdown .. ");
-		}
+	/**
+	 * Called after the {@link TimeoutWheel} reported that an operation did not
+	 * complete in time.
+	 */
+	private final void onTimeout(final Execution execution) {
+		abort(execution, TraceEvent.TIMED_OUT, new Exception("Operation timed out."));
+	}
 
-		if (!shuttingDown.get()) {
+	/**
+	 * Reports the running operation as failed and moves on to the next one
+	 * without waiting for it to complete.
+	 */
+	private final void abort(final Execution execution, final TraceEvent event, final Throwable failure) {
+		if (!execution.completed.compareAndSet(false, true)) {
 			return;
 		}
 
-		if (ENABLE_TRACE || enableLog) {
-			Log.println(
-					this, "->" + owner + ": Attempting shutdown; running state: " + operationInProgress.get());
+		execution.cancelSlowTimeout();
+
+		final StackSampler sampler = stackSampler;
+		final String stack = sampler != null && execution.thread != null
+				? "\n" + sampler.sampleStack(execution.thread)
+				: "";
+		Log.warn(this, (event == TraceEvent.TIMED_OUT ? "Scheduler timed out" : "Scheduler aborted operation")
+				+ " [owner: " + this.owner + ", currentOperation: " + execution.operation + "]" + stack);
+
+		final Tracer tracer = this.tracer;
+		if (tracer != null) {
+			tracer.trace(event, this, execution.operation);
 		}
-		if (operationInProgress.get() == false) {
 
-			if (ENABLE_TRACE || enableLog) {
-				Log.println(this, "->" + owner + ": Attempting shutdown; still scheduled: " + scheduled.size());
+		if (event == TraceEvent.TIMED_OUT) {
+			final MetricsListener metrics = metricsListener;
+			if (metrics != null) {
+				metrics.onTimedOut(this);
+				execution.dispatchedAt = System.nanoTime();
 			}
-			if (scheduled.isEmpty()) {
-				performShutdown();
-				return;
+		} else {
+			final TimeoutWheel.Timeout timeout = execution.timeout;
+			if (timeout != null) {
+				timeout.cancel();
 			}
-
+			execution.measureCompletion(true);
 		}
 
-	}
+		clearCurrentOperation(execution);
+		synchronized (drainSlot) {
+			if (drainSlotOwner == execution) {
+				// the operation thread may be stuck inside apply
+				drainSlotOwner = null;
+			}
+		}
+		operationInProgress.set(false);
 
-	private final void performShutdown() {
+		// the operation may still report back, so the execution cannot be reused
+		execution.recyclable = false;
+		execution.abandon();
+		execution.failure = failure;
+		dispatchCallback(execution);
 
-		final List<Operation<Success>> ops = new ArrayList<Operation<Success>>(4);
+		if (enforceOwnThread) {
+			runIfRequired(true);
+			return;
+		}
 
-		ops.add(new Operation<Success>() {
+		// don't run the next operation on the thread which aborted it
+		executeOnOperationThread(new Runnable() {
 
 			@Override
-			public void apply(final ValueCallback<Success> callback) {
-				operationExecutor.shutdown(AsyncCommon.asSimpleCallback(callback));
+			public void run() {
+				runIfRequired(true);
 			}
 		});
+	}
 
-		ops.add(new Operation<Success>() {
+	/**
+	 * Called after the {@link TimeoutWheel} reported that an operation passed
+	 * the slow operation threshold.
+	 */
+	private final void onSlowOperation(final Execution execution) {
+		if (execution.completed.get()) {
+			return;
+		}
 
-			@Override
-			public void apply(final ValueCallback<Success> callback) {
-				callbackExecutor.shutdown(AsyncCommon.asSimpleCallback(callback));
+		final Object operation = execution.operation;
+		final long now = clock.millis();
+		final StackSampler sampler = stackSampler;
+		final Object thread = execution.thread;
+		final String stack = sampler != null && thread != null ? sampler.sampleStack(thread) : null;
+
+		final long waited = execution.startTime != NOT_STAMPED ? execution.runStartedAt - execution.startTime : 0;
+		final SlowOperationReport report = new SlowOperationReport(operation, waited, now - execution.runStartedAt,
+				stack);
+		synchronized (slowOperationReports) {
+			if (slowOperationReports.size() >= MAX_SLOW_OPERATION_REPORTS) {
+				slowOperationReports.remove(0);
 			}
+			slowOperationReports.add(report);
+		}
 
-		});
+		Log.warn(this, "Slow operation [owner: " + this.owner + ", operation: " + operation + ", running for "
+				+ report.getRunTime() + " ms]");
+	}
 
-		ops.add(new Operation<Success>() {
+	private void performRun() {
+		Execution entry = null;
 
-			@Override
-			public void apply(final ValueCallback<Success> callback) {
+		while (true) {
+			if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+				synchronized (lanes) {
+					entry = pollNext();
+				}
+			} else {
+				entry = pollNext();
+			}
 
-				callback.onSuccess(Success.INSTANCE);
+			if (entry == null) {
+				operationInProgress.set(false);
+				tryShutdown();
+				return;
+			}
 
+			releaseCapacity();
+			if (entry.coalescingKey != null) {
+				// requests from now on need a new run
+				detachCoalesced(entry);
 			}
 
-		});
+			if (!entry.started.compareAndSet(false, true)) {
+				// cancelled while waiting, its callback has already been notified
+				continue;
+			}
+			if (shutdownMode != DRAIN) {
+				discard(entry);
+				continue;
+			}
+			break;
+		}
 
-		AsyncCommon.sequential(ops, AsyncCommon.embed(shutdownCallback.get(), new Closure<List<Success>>() {
+		if (!enforceOwnThread) {
 
-			@Override
-			public void apply(final List<Success> o) {
-				if (ENABLE_METRICS) {
-					Log.println(this, "Runtime for " + owner + " = " + totalRuntime);
+			executeOperation(entry);
+		} else {
+			if (drainBatchSize > 1) {
+				synchronized (drainSlot) {
+					final Execution owner = drainSlotOwner;
+					if (owner != null) {
+						// picked up by the drain in progress
+						drainSlotOwner = null;
+						owner.drainNext = entry;
+						return;
+					}
+				}
+			}
+
+			executeOnOperationThread(entry.drainTask);
+		}
+	}
+
+	/**
+	 * Removes a queued operation without running it while shutting down.
+	 */
+	private final void discard(final Execution entry) {
+		if (shutdownMode == RETURN_QUEUED) {
+			synchronized (unexecuted) {
+				unexecuted.add(new OperationEntry<Object>(entry.operation,
+						entry.startTime != NOT_STAMPED ? entry.startTime : 0, entry.callback));
+			}
+			if (recycleEntries) {
+				recycle(entry);
+			}
+			return;
+		}
+
+		entry.completed.set(true);
+		entry.trace(TraceEvent.DROPPED);
+		entry.recyclable = false;
+		entry.failure = new RejectedOperationException("Operation not started before the scheduler shut down.");
+		dispatchCallback(entry);
+	}
+
+	/**
+	 * Takes the next operation to run from the lane of the highest priority,
+	 * unless the oldest operation of a lower priority has waited longer than
+	 * the aging threshold.
+	 */
+	private final Execution pollNext() {
+		Lane selected = null;
+		Execution selectedHead = null;
+		long now = 0;
+		for (int i = 0; i < lanes.length; i++) {
+			final Execution head = lanes[i].queue.peek();
+			if (head == null) {
+				continue;
+			}
+			if (selected == null) {
+				selected = lanes[i];
+				selectedHead = head;
+				if (agingThreshold <= 0) {
+					break;
+				}
+				continue;
+			}
+			if (head.startTime == NOT_STAMPED || selectedHead.startTime == NOT_STAMPED) {
+				// scheduled before priorities were used
+				continue;
+			}
+			if (now == 0) {
+				now = clock.millis();
+			}
+			if (now - head.startTime >= agingThreshold && head.startTime <= selectedHead.startTime) {
+				selected = lanes[i];
+				selectedHead = head;
+			}
+		}
+
+		if (selected == null) {
+			return null;
+		}
+
+		final Execution entry = selected.queue.poll();
+		selected.depth.decrementAndGet();
+		selected.dequeued.set(selected.dequeued.get() + 1);
+
+		if (entry.startTime == NOT_STAMPED) {
+			return entry;
+		}
+		if (now == 0) {
+			now = clock.millis();
+		}
+		final long waited = now - entry.startTime;
+		selected.totalWaitTime.set(selected.totalWaitTime.get() + waited);
+		if (waited > selected.maxWaitTime.get()) {
+			selected.maxWaitTime.set(waited);
+		}
+		return entry;
+	}
+
+	private final boolean hasScheduled() {
+		for (final Lane lane : lanes) {
+			if (!lane.queue.isEmpty()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Runs the entry on the operation thread. Operations which are scheduled
+	 * while the previous one is still inside its apply method, as happens for
+	 * synchronously completing operations, are run in the same loop until the
+	 * batch size or time budget is exhausted.
+	 */
+	private final void drain(final Execution first) {
+		Execution entry = first;
+		int executed = 0;
+		final long start = drainTimeBudget > 0 ? clock.millis() : 0;
+
+		while (true) {
+			executed++;
+			final boolean withinBudget = executed < drainBatchSize
+					&& (drainTimeBudget <= 0 || clock.millis() - start < drainTimeBudget);
+			if (withinBudget) {
+				synchronized (drainSlot) {
+					drainSlotOwner = entry;
+				}
+			}
+
+			executeOperation(entry);
+
+			if (!withinBudget) {
+				return;
+			}
+
+			final Execution next;
+			synchronized (drainSlot) {
+				if (drainSlotOwner == entry) {
+					drainSlotOwner = null;
+					return;
+				}
+				next = entry.drainNext;
+				entry.drainNext = null;
+			}
+			if (next == null) {
+				// the slot was closed since the operation was aborted
+				return;
+			}
+			entry = next;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void executeOperation(final Execution entryClosed) {
+
+		final Tracer tracer = this.tracer;
+		if (tracer != null) {
+			tracer.trace(TraceEvent.STARTED, this, entryClosed.operation);
+		}
+
+		final MetricsListener metrics = metricsListener;
+		if (metrics != null) {
+			final long now = System.nanoTime();
+			entryClosed.startedAt = now;
+			if (entryClosed.enqueuedAt != 0) {
+				metrics.onStarted(this, now - entryClosed.enqueuedAt);
+			}
+		} else {
+			entryClosed.startedAt = 0;
+		}
+
+		final Operation<Object> operation = entryClosed.operation;
+		final CancellationToken token;
+		if (operation instanceof CancellableOperation) {
+			token = new CancellationToken();
+			entryClosed.token = token;
+		} else {
+			token = null;
+		}
+		if (token != null && entryClosed.cancelRequested) {
+			// cancelled after it was taken from the queue
+			token.cancel();
+		}
+
+		synchronized (currentOperation) {
+			currentOperation.set(entryClosed);
+		}
+		entryClosed.startTimeout();
+
+		final int generation = entryClosed.generation;
+		final Interrupter interrupter = enforceOwnThread ? this.interrupter : null;
+		if (interrupter != null) {
+			entryClosed.enterApply(interrupter.currentThread(), generation);
+		}
+		try {
+			if (token != null) {
+				((CancellableOperation<Object>) operation).apply(token, entryClosed);
+			} else {
+				operation.apply(entryClosed);
+			}
+		} catch (final Throwable t) {
+
+			if (entryClosed.generation != generation) {
+				Log.warn(this, "Operation threw an exception after its callback was triggered: [" + t.getMessage() + "]", t);
+				return;
+			}
+
+			entryClosed.onFailure(t);
+
+		} finally {
+			if (interrupter != null) {
+				entryClosed.exitApply(interrupter, generation);
+			}
+		}
+	}
+
+	private final void dispatchCallback(final Runnable callbackTask) {
+		final CallbackDispatcher dispatcher = callbackDispatcher;
+		if (dispatcher != null) {
+			dispatcher.dispatch(callbackTask);
+			return;
+		}
+
+		SimpleExecutor executor = callbackExecutor;
+		if (executor == null) {
+			executor = createExecutors(false);
+		}
+		executor.execute(callbackTask);
+	}
+
+	/**
+	 * Hands work off the timer of the {@link TimeoutWheel}, which is shared by
+	 * many schedulers. Callbacks which are called inline would otherwise run on
+	 * the timer as well.
+	 */
+	private final void executeOffTimer(final Runnable task) {
+		final CallbackDispatcher dispatcher = callbackDispatcher;
+		if (dispatcher != null && dispatcher != CallbackDispatchers.inline()) {
+			dispatcher.dispatch(task);
+			return;
+		}
+
+		SimpleExecutor executor = callbackExecutor;
+		if (executor == null) {
+			executor = createExecutors(false);
+		}
+		executor.execute(task);
+	}
+
+	/**
+	 * Runs the task on the pool or the thread of this scheduler. Also used by
+	 * {@link SingleInstanceQueueWorker} to continue a drain which waited for
+	 * more items.
+	 */
+	final void executeOnOperationThread(final Runnable task) {
+		final WorkerPool pool = workerPool;
+		if (pool != null) {
+			pool.execute(task);
+			return;
+		}
+
+		SimpleExecutor executor = operationExecutor;
+		if (executor == null) {
+			executor = createExecutors(true);
+		}
+		executor.execute(task);
+	}
+
+	private synchronized SimpleExecutor createExecutors(final boolean forOperations) {
+		if (forOperations) {
+			if (operationExecutor == null) {
+				operationExecutor = concurrency.newExecutor().newSingleThreadExecutor(owner);
+			}
+			return operationExecutor;
+		}
+
+		if (callbackExecutor == null) {
+			callbackExecutor = concurrency.newExecutor().newParallelExecutor(0, 5, owner);
+		}
+		return callbackExecutor;
+	}
+
+	private final Execution obtainExecution() {
+		if (recycleEntries) {
+			synchronized (executionPool) {
+				final Execution execution = executionPool.next;
+				if (execution != null) {
+					executionPool.next = execution.next;
+					execution.next = null;
+					pooledExecutions--;
+					return execution;
+				}
+			}
+		}
+		return new Execution();
+	}
+
+	private final void recycle(final Execution execution) {
+		execution.clear();
+		synchronized (executionPool) {
+			if (pooledExecutions >= MAX_POOLED_EXECUTIONS) {
+				return;
+			}
+			execution.next = executionPool.next;
+			executionPool.next = execution;
+			pooledExecutions++;
+		}
+	}
+
+	/**
+	 * The queue of one {@link Priority}. The statistics are only written by the
+	 * thread taking operations from the queue.
+	 */
+	private final class Lane {
+
+		private final Priority priority;
+		private final Queue<Execution> queue;
+		private final SimpleAtomicInteger depth;
+		private final SimpleAtomicLong dequeued;
+		private final SimpleAtomicLong totalWaitTime;
+		private final SimpleAtomicLong maxWaitTime;
+
+		private PriorityMetrics getMetrics() {
+			final int currentDepth = depth.get();
+			return new PriorityMetrics(priority, currentDepth < 0 ? 0 : currentDepth, dequeued.get(),
+					totalWaitTime.get(), maxWaitTime.get());
+		}
+
+		private Lane(final Priority priority, final WorkQueueFactory queueFactory) {
+			super();
+			this.priority = priority;
+			this.queue = queueFactory.newQueue(Execution.class);
+			this.depth = concurrency.newAtomicInteger(0);
+			this.dequeued = concurrency.newAtomicLong(0);
+			this.totalWaitTime = concurrency.newAtomicLong(0);
+			this.maxWaitTime = concurrency.newAtomicLong(0);
+		}
+
+	}
+
+	/**
+	 * An operation scheduled on this scheduler together with the state of its
+	 * execution. It serves as the callback passed to the operation and as the
+	 * task which reports the result to the callback of the caller, so that
+	 * recycled executions can be run without allocating. It is also the handle
+	 * returned to the caller unless executions are recycled.
+	 */
+	private final class Execution extends OperationEntry<Object>
+			implements ValueCallback<Object>, Runnable, OperationHandle {
+
+		private final SimpleAtomicBoolean completed;
+
+		/**
+		 * Set when the execution is taken from the queue to be run, or when it
+		 * is cancelled before that, which leaves it as a tombstone.
+		 */
+		private final SimpleAtomicBoolean started;
+		private volatile boolean cancelRequested;
+
+		private final Runnable drainTask;
+		private final Runnable timeoutTask;
+		private TimeoutWheel timeoutWheelUsed;
+
+		/**
+		 * Only used while a slow operation threshold is set.
+		 */
+		private final Runnable slowTask;
+		private volatile TimeoutWheel.Timeout slowTimeout;
+		private volatile boolean slowTimeoutStarted;
+		private volatile Object thread;
+		private volatile long runStartedAt;
+
+		/**
+		 * Only set for a {@link CancellableOperation}.
+		 */
+		private volatile CancellationToken token;
+
+		/**
+		 * The thread inside apply while an {@link Interrupter} is set, and
+		 * whether it has been interrupted. Guarded by this execution.
+		 */
+		private Object applyingThread;
+		private int applyingGeneration;
+		private boolean interrupted;
+
+		/**
+		 * Incremented every time this execution is reused.
+		 */
+		private volatile int generation;
+		private boolean recyclable;
+
+		/**
+		 * Times in nanoseconds, only taken while a {@link MetricsListener} is
+		 * set; otherwise <code>0</code>.
+		 */
+		private long enqueuedAt;
+		private long startedAt;
+		private long dispatchedAt;
+
+		private Object value;
+		private Throwable failure;
+
+		/**
+		 * The key if the operation was scheduled with
+		 * {@link SequentialOperationScheduler#scheduleCoalesced}.
+		 */
+		private Object coalescingKey;
+
+		/**
+		 * Next free execution while in the pool.
+		 */
+		private Execution next;
+
+		/**
+		 * The operation handed over to the drain running this execution.
+		 * Guarded by drainSlot.
+		 */
+		private Execution drainNext;
+
+		private synchronized void prepare(final Operation<Object> operation,
+				final ValueCallback<Object> callback, final long scheduledAt) {
+			init(operation, scheduledAt, callback);
+			generation++;
+			completed.set(false);
+			started.set(false);
+			cancelRequested = false;
+			recyclable = false;
+		}
+
+		private void clear() {
+			init(null, 0, null);
+			enqueuedAt = 0;
+			startedAt = 0;
+			dispatchedAt = 0;
+			coalescingKey = null;
+			thread = null;
+			token = null;
+			value = null;
+			failure = null;
+		}
+
+		private void startTimeout() {
+			if (timeout == null || timeoutWheelUsed != timeoutWheel) {
+				timeoutWheelUsed = timeoutWheel;
+				timeout = timeoutWheel.newTimeout(timeoutTask);
+				slowTimeout = null;
+			}
+			timeout.start(SequentialOperationScheduler.this.timeout);
+
+			final int threshold = slowOperationThreshold;
+			if (threshold > 0) {
+				if (slowTimeout == null) {
+					slowTimeout = timeoutWheelUsed.newTimeout(slowTask);
+				}
+				final StackSampler sampler = stackSampler;
+				thread = sampler != null ? sampler.currentThread() : null;
+				runStartedAt = clock.millis();
+				slowTimeoutStarted = true;
+				slowTimeout.start(threshold);
+			}
+		}
+
+		@Override
+		public boolean cancel() {
+			return cancel(generation);
+		}
+
+		/**
+		 * Cancels the operation this execution was prepared for with the
+		 * generation. Has no effect once the execution has been reused.
+		 */
+		private boolean cancel(final int generation) {
+			final boolean queued;
+			final CancellationToken token;
+			// checked under the same lock prepare takes, so that a recycled
+			// execution is not reset in between
+			synchronized (this) {
+				if (this.generation != generation || completed.get()) {
+					return false;
+				}
+				queued = started.compareAndSet(false, true);
+				if (queued) {
+					// discarded once it reaches the head of its lane
+					if (!completed.compareAndSet(false, true)) {
+						return false;
+					}
+					recyclable = false;
+					token = null;
+				} else {
+					cancelRequested = true;
+					token = this.token;
+					interruptApplying();
+				}
+			}
+
+			if (queued) {
+				trace(TraceEvent.CANCELLED);
+				failure = new CancelledOperationException("Operation cancelled before it was started.");
+				dispatchCallback(this);
+				return true;
+			}
+
+			// the token of this generation, taken before the execution could be
+			// reused
+			if (token != null) {
+				token.cancel();
+			}
+			return this.generation == generation && !completed.get();
+		}
+
+		private synchronized void enterApply(final Object thread, final int generation) {
+			applyingThread = thread;
+			applyingGeneration = generation;
+			interrupted = false;
+		}
+
+		private synchronized void exitApply(final Interrupter interrupter, final int generation) {
+			if (applyingGeneration != generation) {
+				return;
+			}
+			applyingThread = null;
+			if (interrupted) {
+				// do not carry the interrupt over to the next operation
+				interrupter.clearInterrupt();
+				interrupted = false;
+			}
+		}
+
+		/**
+		 * Stops the work of an operation which has timed out: cancels its token
+		 * and interrupts the operation thread if it is still inside apply.
+		 */
+		private void abandon() {
+			final CancellationToken token = this.token;
+			if (token != null) {
+				token.cancel();
+			}
+			interruptApplying();
+		}
+
+		private synchronized void interruptApplying() {
+			final Interrupter interrupter = SequentialOperationScheduler.this.interrupter;
+			if (interrupter != null && applyingThread != null) {
+				interrupted = true;
+				interrupter.interrupt(applyingThread);
+			}
+		}
+
+		/**
+		 * @return <code>false</code> if the slow operation timeout of this run
+		 *         could not be cancelled since it has already expired.
+		 */
+		private boolean cancelSlowTimeout() {
+			if (!slowTimeoutStarted) {
+				return true;
+			}
+			slowTimeoutStarted = false;
+			return slowTimeout.cancel();
+		}
+
+		@Override
+		public void onFailure(final Throwable t) {
+			if (!completed.compareAndSet(false, true)) {
+				Log.warn(this, "Operation [" + operation
+						+ "] failed. Callback cannot be triggered, it was already triggered. Error reported: ["+t.getMessage()+"]", t);
+				return;
+			}
+			trace(TraceEvent.FAILED);
+			// an expiry already in progress prevents reuse
+			final boolean slowTimeoutCancelled = cancelSlowTimeout();
+			recyclable = timeout.cancel() && slowTimeoutCancelled && recycleEntries;
+			measureCompletion(true);
+			clearCurrentOperation(this);
+
+			operationInProgress.set(false);
+
+			runIfRequired(true);
+
+			failure = t;
+			dispatchCallback(this);
+		}
+
+		@Override
+		public void onSuccess(final Object value) {
+			if (!completed.compareAndSet(false, true)) {
+
+				Log.println(SequentialOperationScheduler.this,
+						"Don't call callback since operation timed out or callback was already triggered: "
+								+ operation);
+
+				return;
+			}
+			trace(TraceEvent.COMPLETED);
+			// an expiry already in progress prevents reuse
+			final boolean slowTimeoutCancelled = cancelSlowTimeout();
+			recyclable = timeout.cancel() && slowTimeoutCancelled && recycleEntries;
+			measureCompletion(false);
+			clearCurrentOperation(this);
+
+			operationInProgress.set(false);
+
+			this.value = value;
+			dispatchCallback(this);
+
+			runIfRequired(true);
+		}
+
+		private void trace(final TraceEvent event) {
+			final Tracer tracer = SequentialOperationScheduler.this.tracer;
+			if (tracer != null) {
+				tracer.trace(event, SequentialOperationScheduler.this, operation);
+			}
+		}
+
+		private void measureCompletion(final boolean failed) {
+			final MetricsListener metrics = metricsListener;
+			if (metrics == null || startedAt == 0) {
+				dispatchedAt = 0;
+				return;
+			}
+			final long now = System.nanoTime();
+			dispatchedAt = now;
+			if (failed) {
+				metrics.onFailed(SequentialOperationScheduler.this, now - startedAt);
+			} else {
+				metrics.onCompleted(SequentialOperationScheduler.this, now - startedAt);
+			}
+		}
+
+		/**
+		 * Reports the result to the callback of the caller.
+		 */
+		@Override
+		public void run() {
+			if (dispatchedAt != 0) {
+				final MetricsListener metrics = metricsListener;
+				if (metrics != null) {
+					metrics.onCallbackDispatched(SequentialOperationScheduler.this, System.nanoTime() - dispatchedAt);
+				}
+			}
+			try {
+				if (failure != null) {
+					callback.onFailure(failure);
+				} else {
+					callback.onSuccess(value);
+				}
+			} finally {
+				if (recyclable) {
+					recycle(this);
+				}
+			}
+		}
+
+		private Execution() {
+			super(null, 0, null);
+			this.completed = concurrency.newAtomicBoolean(false);
+			this.started = concurrency.newAtomicBoolean(false);
+			this.drainTask = new Runnable() {
+
+				@Override
+				public void run() {
+					drain(Execution.this);
+				}
+			};
+			// an execution whose timeouts fired is not recycled
+			this.timeoutTask = new Runnable() {
+
+				@Override
+				public void run() {
+					executeOffTimer(new Runnable() {
+
+						@Override
+						public void run() {
+							onTimeout(Execution.this);
+						}
+					});
 				}
+			};
+			this.slowTask = new Runnable() {
+
+				@Override
+				public void run() {
+					executeOffTimer(new Runnable() {
 
-				if (shutDown.compareAndSet(false, true)) {
+						@Override
+						public void run() {
+							onSlowOperation(Execution.this);
+						}
+					});
+				}
+			};
+		}
+
+	}
+
+	/**
+	 * Shuts down the scheduler once all operations scheduled so far have been
+	 * run. Operations scheduled from now on are rejected with
+	 * {@link RejectedOperationException}. Can be called again, for instance to
+	 * switch to {@link #shutdownNow(ValueCallback)}; every callback is notified
+	 * when the scheduler is shut down.
+	 * 
+	 * @param cb
+	 */
+	public void shutdown(final ValueCallback<Success> cb) {
+		if (!beginShutdown(cb)) {
+			return;
+		}
+		tryShutdown();
+	}
+
+	/**
+	 * Shuts down the scheduler once all operations scheduled so far have been
+	 * run, but no later than the deadline. Then the running operation is
+	 * aborted and operations which have not been started are reported as
+	 * rejected to their callbacks.
+	 * 
+	 * @param deadlineInMs
+	 * @param cb
+	 */
+	public void shutdown(final int deadlineInMs, final ValueCallback<Success> cb) {
+		if (!beginShutdown(cb)) {
+			return;
+		}
+		timeoutWheel.schedule(deadlineInMs, new Runnable() {
 
-					shutdownCallback.get().onSuccess(Success.INSTANCE);
+			@Override
+			public void run() {
+				if (shutDown.get()) {
+					return;
+				}
+				if (shutdownMode == DRAIN) {
+					shutdownMode = REJECT_QUEUED;
 				}
+				abortRemaining();
+			}
+		});
+		tryShutdown();
+	}
+
+	/**
+	 * Shuts down the scheduler without running further operations. The running
+	 * operation is aborted. Operations which have not been started are removed
+	 * without notifying their callbacks and passed to the callback of this
+	 * method, unless they were cancelled.
+	 * 
+	 * @param cb
+	 *            Receives the operations which have not been run.
+	 */
+	public void shutdownNow(final ValueCallback<List<OperationEntry<Object>>> cb) {
+		shutdownMode = RETURN_QUEUED;
+		final boolean started = beginShutdown(new ValueCallback<Success>() {
 
+			@Override
+			public void onFailure(final Throwable t) {
+				cb.onFailure(t);
 			}
-		}));
 
+			@Override
+			public void onSuccess(final Success value) {
+				synchronized (unexecuted) {
+					cb.onSuccess(new ArrayList<OperationEntry<Object>>(unexecuted));
+				}
+			}
+		});
+		if (started) {
+			abortRemaining();
+		}
+	}
+
+	/**
+	 * @return <code>false</code> if the scheduler is already shut down, in
+	 *         which case the callback has been notified.
+	 */
+	private final boolean beginShutdown(final ValueCallback<Success> cb) {
+		synchronized (shutdownCallbacks) {
+			if (!shutDown.get()) {
+				shutdownCallbacks.add(cb);
+				shuttingDown.set(true);
+				return true;
+			}
+		}
+		cb.onSuccess(Success.INSTANCE);
+		return false;
+	}
+
+	/**
+	 * Aborts the running operation and discards the queued ones according to
+	 * the shutdown mode.
+	 */
+	private final void abortRemaining() {
+		final Execution running;
+		synchronized (currentOperation) {
+			running = (Execution) currentOperation.get();
+		}
+		if (running != null && running.started.get() && !running.completed.get()) {
+			abort(running, TraceEvent.ABORTED,
+					new RejectedOperationException("Operation aborted since the scheduler shut down."));
+		}
+		// bypasses suspension; queued operations are only discarded
+		if (operationInProgress.compareAndSet(false, true)) {
+			performRun();
+		}
+	}
+
+	/**
+	 * Clears the current operation unless another one has been started since.
+	 */
+	private final void clearCurrentOperation(final Execution execution) {
+		synchronized (currentOperation) {
+			if (currentOperation.get() == execution) {
+				currentOperation.set(null);
+			}
+		}
+	}
+
+	private final void tryShutdown() {
+
+		if (enableLog) {
+			Log.println(this, "->" + owner + ": Attempting shutdown .. ");
+		}
+
+		if (!shuttingDown.get()) {
+			return;
+		}
+
+		if (enableLog) {
+			Log.println(
+					this, "->" + owner + ": Attempting shutdown; running state: " + operationInProgress.get());
+		}
+		if (operationInProgress.get() == false) {
+
+			if (enableLog) {
+				Log.println(this, "->" + owner + ": Attempting shutdown; still scheduled: " + pendingCount.get());
+			}
+			if (!hasScheduled()) {
+				performShutdown();
+				return;
+			}
+
+		}
+
+	}
+
+	/**
+	 * Shuts down the executors owned by this scheduler in parallel.
+	 */
+	private final void performShutdown() {
+
+		final List<SimpleExecutor> executors = new ArrayList<SimpleExecutor>(2);
+		if (operationExecutor != null) {
+			executors.add(operationExecutor);
+		}
+		if (callbackExecutor != null) {
+			executors.add(callbackExecutor);
+		}
+
+		if (executors.isEmpty()) {
+			completeShutdown(null);
+			return;
+		}
+
+		final SimpleAtomicInteger remaining = concurrency.newAtomicInteger(executors.size());
+		for (final SimpleExecutor executor : executors) {
+			executor.shutdown(new SimpleCallback() {
+
+				@Override
+				public void onSuccess() {
+					if (remaining.decrementAndGet() == 0) {
+						completeShutdown(null);
+					}
+				}
+
+				@Override
+				public void onFailure(final Throwable t) {
+					completeShutdown(t);
+				}
+			});
+		}
+
+	}
+
+	private final void completeShutdown(final Throwable failure) {
+		final List<ValueCallback<Success>> callbacks;
+		synchronized (shutdownCallbacks) {
+			if (!shutDown.compareAndSet(false, true)) {
+				return;
+			}
+			callbacks = new ArrayList<ValueCallback<Success>>(shutdownCallbacks);
+			shutdownCallbacks.clear();
+		}
+		for (final ValueCallback<Success> callback : callbacks) {
+			if (failure != null) {
+				callback.onFailure(failure);
+			} else {
+				callback.onSuccess(Success.INSTANCE);
+			}
+		}
+	}
+
+	/**
+	 * Sets the clock used for queue wait times, aging, time budgets and slow
+	 * operations. Timeouts are measured by the clock of the
+	 * {@link TimeoutWheel}, so tests using a {@link ManualClock} should also
+	 * set a wheel created with it.
+	 * 
+	 * @param clock
+	 */
+	public void setClock(final Clock clock) {
+		this.clock = clock;
 	}
 
 	public void setTimeout(final int timeoutInMs) {
 		this.timeout = timeoutInMs;
 	}
 
+	/**
+	 * Sets the wheel used to time out operations. By default all schedulers
+	 * share {@link TimeoutWheel#getShared(Concurrency)}.
+	 * 
+	 * @param timeoutWheel
+	 */
+	public void setTimeoutWheel(final TimeoutWheel timeoutWheel) {
+		this.timeoutWheel = timeoutWheel;
+	}
+
+	/**
+	 * Sets how the callbacks of operations are called, see
+	 * {@link CallbackDispatchers}. By default every scheduler calls callbacks
+	 * from an executor of its own.
+	 * 
+	 * @param callbackDispatcher
+	 */
+	public void setCallbackDispatcher(final CallbackDispatcher callbackDispatcher) {
+		this.callbackDispatcher = callbackDispatcher;
+	}
+
+	/**
+	 * Runs operations on the provided pool instead of on a thread owned by this
+	 * scheduler when {@link #setEnforceOwnThread(boolean)} is enabled. Any
+	 * number of schedulers can share a pool, operations of every scheduler are
+	 * still run one at a time and in order.
+	 * 
+	 * @param workerPool
+	 */
+	public void setWorkerPool(final WorkerPool workerPool) {
+		this.workerPool = workerPool;
+	}
+
 	public void setEnforceOwnThread(final boolean value) {
 		this.enforceOwnThread = value;
 	}
 
-	public void setEnableLog(final boolean enableLog) {
+	/**
+	 * Interrupts the operation thread if an operation times out while still
+	 * inside its apply method, which ends blocking calls. Only applies when
+	 * {@link #setEnforceOwnThread(boolean)} is enabled, so that threads of
+	 * callers are never interrupted. Operations implementing
+	 * {@link CancellableOperation} are cancelled on timeout regardless.
+	 * 
+	 * @param interrupter
+	 *            <code>null</code> to leave timed out operations running.
+	 */
+	public void setInterrupter(final Interrupter interrupter) {
+		this.interrupter = interrupter;
+	}
+
+	/**
+	 * Allows the operation thread to run up to the specified number of
+	 * operations back to back before yielding it, as long as each operation
+	 * completes before its apply method returns. Only applies when
+	 * {@link #setEnforceOwnThread(boolean)} is enabled. The default of 1
+	 * submits every operation to the executor separately.
+	 * 
+	 * @param maxOperations
+	 */
+	public void setDrainBatchSize(final int maxOperations) {
+		this.drainBatchSize = maxOperations;
+	}
+
+	/**
+	 * Limits the time the operation thread keeps draining operations when
+	 * {@link #setDrainBatchSize(int)} is greater than 1. 0 means no limit.
+	 * 
+	 * @param timeInMs
+	 */
+	public void setDrainTimeBudget(final int timeInMs) {
+		this.drainTimeBudget = timeInMs;
+	}
+
+	/**
+	 * Reuses the internal entries and callbacks of completed operations. Once
+	 * the scheduler is warmed up, scheduling an operation only allocates the
+	 * node of the work queue and the returned handle.
+	 * <p>
+	 * Operations must call their callback exactly once when this is enabled.
+	 * Entries of operations which timed out are never reused. The
+	 * {@link OperationHandle} returned by <code>schedule</code> is then a small
+	 * object of its own, cancelling it after the callback has been notified
+	 * has no effect.
+	 * 
+	 * @param value
+	 */
+	public void setRecycleEntries(final boolean value) {
+		this.recycleEntries = value;
+	}
+
+	/**
+	 * Reports measurements of this scheduler to the listener. Set to
+	 * <code>null</code> to stop measuring.
+	 * 
+	 * @param listener
+	 */
+	public void setMetricsListener(final MetricsListener listener) {
+		this.metricsListener = listener;
+	}
+
+	/**
+	 * Reports operations which are still running after the threshold, well
+	 * before they time out. The stack of the thread which started the
+	 * operation is sampled, which shows where operations that block their
+	 * thread are stuck.
+	 * 
+	 * @param thresholdInMs
+	 *            <code>0</code> to disable.
+	 * @param sampler
+	 *            Captures stacks, also for operations which time out; may be
+	 *            <code>null</code>.
+	 * @see #getSlowOperationReports()
+	 */
+	public void setSlowOperationThreshold(final int thresholdInMs, final StackSampler sampler) {
+		this.slowOperationThreshold = thresholdInMs;
+		this.stackSampler = sampler;
+	}
+
+	/**
+	 * @return The most recent slow operations, oldest first.
+	 */
+	public List<SlowOperationReport> getSlowOperationReports() {
+		synchronized (slowOperationReports) {
+			return new ArrayList<SlowOperationReport>(slowOperationReports);
+		}
+	}
+
+	/**
+	 * Reports the events of all operations to the tracer. Set to
+	 * <code>null</code> to stop tracing.
+	 * 
+	 * @param tracer
+	 * @see TraceBuffer
+	 */
+	public synchronized void setTracer(final Tracer tracer) {
+		this.userTracer = tracer;
+		this.tracer = enableLog ? Tracers.combine(Tracers.log(), tracer) : tracer;
+	}
+
+	/**
+	 * Prints every event of every operation. Expensive; prefer
+	 * {@link #setTracer(Tracer)} with a {@link TraceBuffer}. A tracer set
+	 * with {@link #setTracer(Tracer)} keeps receiving the events.
+	 * 
+	 * @param enableLog
+	 */
+	public synchronized void setEnableLog(final boolean enableLog) {
 		this.enableLog = enableLog;
+		this.tracer = enableLog ? Tracers.combine(Tracers.log(), userTracer) : userTracer;
+	}
+
+	/**
+	 * Limits the number of operations waiting to be run.
+	 * 
+	 * @param capacity
+	 *            The maximum number of pending operations or <code>0</code>
+	 *            for no limit.
+	 * @param policy
+	 *            What to do with operations scheduled while the scheduler is at
+	 *            capacity.
+	 */
+	public void setCapacity(final int capacity, final OverflowPolicy policy) {
+		this.capacity = capacity;
+		this.overflowPolicy = policy;
+	}
+
+	/**
+	 * Sets how threads wait for capacity with {@link OverflowPolicy#BLOCK}.
+	 * 
+	 * @param waiter
+	 * @param timeoutInMs
+	 *            How long to wait before the operation is rejected.
+	 */
+	public void setCapacityWaiter(final CapacityWaiter waiter, final int timeoutInMs) {
+		this.capacityWaiter = waiter;
+		this.blockTimeout = timeoutInMs;
+	}
+
+	/**
+	 * Sets after how long an operation of a lower priority is run before
+	 * pending operations of higher priorities, so that these cannot starve it.
+	 * 
+	 * @param thresholdInMs
+	 *            <code>0</code> for strict priorities.
+	 */
+	public void setAgingThreshold(final int thresholdInMs) {
+		this.agingThreshold = thresholdInMs;
 	}
 
 	public int scheduledCount() {
-		return scheduled.size();
+		return pendingCount.get();
+	}
+
+	/**
+	 * @param priority
+	 * @return The queue depth and wait times of operations of the specified
+	 *         priority. Wait times are only measured once operations of more
+	 *         than one priority are scheduled, or while a
+	 *         {@link MetricsListener} or slow operation threshold is set.
+	 */
+	public PriorityMetrics getMetrics(final Priority priority) {
+		return lanes[priority.ordinal()].getMetrics();
 	}
 
 	public Concurrency getConcurrency() {
@@ -423,26 +1848,70 @@ public final class SequentialOperationScheduler {
 	}
 
 	public SequentialOperationScheduler(final Object owner, final Concurrency concurrency) {
+		this(owner, concurrency, WorkQueues.threadSafe(concurrency));
+	}
+
+	/**
+	 * 
+	 * @param owner
+	 * @param concurrency
+	 * @param queueFactory
+	 *            Creates the queues for scheduled operations, one per
+	 *            priority.
+	 */
+	public SequentialOperationScheduler(final Object owner, final Concurrency concurrency,
+			final WorkQueueFactory queueFactory) {
 		super();
 		assert concurrency != null;
 		this.owner = owner;
 		this.concurrency = concurrency;
-		this.scheduled = concurrency.newCollection().newThreadSafeQueue(OperationEntry.class);
+		final Priority[] priorities = Priority.values();
+		this.lanes = new Lane[priorities.length];
+		for (int i = 0; i < priorities.length; i++) {
+			this.lanes[i] = new Lane(priorities[i], queueFactory);
+		}
+		this.pendingCount = concurrency.newAtomicInteger(0);
+		this.agingThreshold = DEFAULT_AGING_THRESHOLD;
+		this.coalesced = new HashMap<Object, Execution>();
+		this.slowOperationThreshold = 0;
+		this.stackSampler = null;
+		this.slowOperationReports = new ArrayList<SlowOperationReport>();
+		this.capacity = 0;
+		this.overflowPolicy = OverflowPolicy.REJECT;
+		this.capacityWaiter = null;
+		this.blockTimeout = 0;
+		this.admission = new CapacityWaiter.Condition() {
+
+			@Override
+			public boolean tryAcquire() {
+				return tryAcquireCapacity();
+			}
+		};
 
 		this.shuttingDown = concurrency.newAtomicBoolean(false);
-		this.shutdownCallback = new Value<ValueCallback<Success>>(null);
+		this.shutdownCallbacks = new ArrayList<ValueCallback<Success>>(2);
+		this.shutdownMode = DRAIN;
+		this.clock = Clocks.monotonic();
+		this.unexecuted = new ArrayList<OperationEntry<Object>>();
 
-		this.operationExecutor = concurrency.newExecutor().newSingleThreadExecutor(owner);
-		this.callbackExecutor = concurrency.newExecutor().newParallelExecutor(0, 5, owner);
+		this.operationExecutor = null;
+		this.callbackExecutor = null;
+		this.callbackDispatcher = null;
+		this.workerPool = null;
 
 		this.suspendCount = concurrency.newAtomicInteger(0);
 		this.operationInProgress = concurrency.newAtomicBoolean(false);
 		this.shutDown = concurrency.newAtomicBoolean(false);
 		this.timeout = 3000;
-		this.lastRun = concurrency.newAtomicLong(-1);
+		this.timeoutWheel = TimeoutWheel.getShared(concurrency);
 		this.currentOperation = new Value<OperationEntry<Object>>(null);
 
 		this.enforceOwnThread = false;
+		this.drainBatchSize = 1;
+		this.drainTimeBudget = 0;
+		this.drainSlot = new Object();
+		this.recycleEntries = false;
+		this.executionPool = new Execution();
 
 	}
 
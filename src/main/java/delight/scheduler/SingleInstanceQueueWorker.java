@@ -3,6 +3,8 @@ package delight.scheduler;
 import delight.async.Operation;
 import delight.async.callbacks.ValueCallback;
 import delight.concurrency.Concurrency;
+import delight.concurrency.wrappers.SimpleAtomicBoolean;
+import delight.concurrency.wrappers.SimpleAtomicInteger;
 import delight.functional.Success;
 
 import java.util.ArrayList;
@@ -23,15 +25,103 @@ public abstract class SingleInstanceQueueWorker<GItem> {
     protected final Queue<GItem> queue;
     private final Concurrency con;
     private int delay = 0;
+    private int maxBatchSize = 0;
+
+    /**
+     * Buffers larger than this are not kept for the next drain.
+     */
+    private static final int MAX_RETAINED_BATCH = 1024;
+
+    /**
+     * Reused for every batch; only accessed by the thread draining.
+     */
+    private ArrayList<GItem> batch;
+
+    /**
+     * The number of items in the queue.
+     */
+    private final SimpleAtomicInteger queued;
+
+    /**
+     * Set while a drain has been scheduled but not finished. Items offered in
+     * the meantime are processed by that drain.
+     */
+    private final SimpleAtomicBoolean drainPending;
+
+    /**
+     * Open while a drain waits for more items to arrive.
+     */
+    private final SimpleAtomicBoolean lingerOpen;
+    private volatile ValueCallback<Object> lingering;
+
+    private volatile MetricsListener metricsListener;
+    /**
+     * When the pending drain was requested, in nanoseconds; only taken while
+     * a {@link MetricsListener} is set.
+     */
+    private volatile long drainRequestedAt;
+
+    private final Operation<Object> drainOperation;
+    private final ValueCallback<Object> drainCallback;
+    private final Runnable flushTask;
+    private final Runnable lingerFlush;
 
     /**
      * It is guaranteed that this method is only called by one worker thread at
      * the time and that the items are forwarded FIFO how they were offered.
+     * <p>
+     * The list is reused for the next batch and must not be retained.
      * 
      * @param item
      */
     protected abstract void processItems(List<GItem> item);
 
+    /**
+     * Processes the next batch of items, taking them with {@link #poll()}. The
+     * default collects them into a reused list for
+     * {@link #processItems(List)}. Subclasses which can process items one by
+     * one may override this to consume them straight from the queue.
+     * 
+     * @param maxItems
+     *            The most items to take for this batch.
+     * @return The number of items taken; <code>0</code> ends the drain.
+     */
+    protected int drainBatch(final int maxItems) {
+        final ArrayList<GItem> items = batch;
+        int taken = 0;
+        try {
+            GItem next;
+            while (taken < maxItems && (next = poll()) != null) {
+                items.add(next);
+                taken++;
+            }
+            if (taken > 0) {
+                processItems(items);
+            }
+        } finally {
+            items.clear();
+            if (taken > MAX_RETAINED_BATCH && maxBatchSize <= 0) {
+                // do not hold on to the memory of a burst
+                batch = new ArrayList<GItem>();
+            }
+        }
+        return taken;
+    }
+
+    /**
+     * Takes the next item to process from the queue. Only to be called from
+     * {@link #drainBatch(int)}.
+     * 
+     * @return <code>null</code> if the queue is empty.
+     */
+    protected final GItem poll() {
+        final GItem item = queue.poll();
+        if (item != null) {
+            queued.decrementAndGet();
+        }
+        return item;
+    }
+
     public void shutdown(final ValueCallback<Success> cb) {
         thread.shutdown(cb);
     }
@@ -44,76 +134,157 @@ public abstract class SingleInstanceQueueWorker<GItem> {
     public void offer(final GItem item) {
 
         queue.offer(item);
+        final int count = queued.incrementAndGet();
 
-        thread.schedule(new Operation<Object>() {
-
-            @Override
-            public void apply(final ValueCallback<Object> callback) {
-
-                if (delay == 0) {
-                    perfomActions(callback);
-                    return;
-                }
-
-                con.newTimer().scheduleOnce(delay, new Runnable() {
+        final MetricsListener metrics = metricsListener;
+        if (metrics != null) {
+            metrics.onEnqueued(this, count);
+        }
 
-                    @Override
-                    public void run() {
-                        perfomActions(callback);
-                    }
+        if (drainPending.compareAndSet(false, true)) {
+            drainRequestedAt = metrics != null ? System.nanoTime() : 0;
+            thread.schedule(drainOperation, drainCallback);
+            return;
+        }
 
-                });
+        if (maxBatchSize > 0 && count >= maxBatchSize) {
+            flushIfLingering();
+        }
 
-            }
+    }
 
-        }, new ValueCallback<Object>() {
+    private void startDrain(final ValueCallback<Object> callback) {
+        if (delay == 0 || (maxBatchSize > 0 && queued.get() >= maxBatchSize)) {
+            perfomActions(callback);
+            return;
+        }
 
-            @Override
-            public void onFailure(final Throwable t) {
-                throw new RuntimeException(t);
-            }
+        lingering = callback;
+        lingerOpen.set(true);
 
-            @Override
-            public void onSuccess(final Object value) {
+        // a timer left over from a previous drain may only flush this one early
+        con.newTimer().scheduleOnce(delay, flushTask);
 
-            }
-        });
+        if (maxBatchSize > 0 && queued.get() >= maxBatchSize) {
+            flushIfLingering();
+        }
+    }
 
+    /**
+     * Ends the linger time of the waiting drain. The drain continues on the
+     * worker's thread, never on the thread of the producer or the timer.
+     */
+    private void flushIfLingering() {
+        if (!lingerOpen.compareAndSet(true, false)) {
+            return;
+        }
+        thread.executeOnOperationThread(lingerFlush);
     }
 
     private void perfomActions(final ValueCallback<Object> callback) {
-        while (queue.size() > 0) {
-            final List<GItem> items = new ArrayList<GItem>(queue.size());
+        final MetricsListener metrics = metricsListener;
+        final long requestedAt = drainRequestedAt;
+        if (metrics != null && requestedAt != 0) {
+            metrics.onStarted(this, System.nanoTime() - requestedAt);
+        }
 
-            GItem next;
-            while ((next = queue.poll()) != null) {
-                items.add(next);
-                // break;
-            }
+        while (true) {
             try {
-                processItems(items);
+                drain();
             } catch (final Throwable t) {
+                drainPending.set(false);
+                if (!queue.isEmpty() && drainPending.compareAndSet(false, true)) {
+                    thread.schedule(drainOperation, drainCallback);
+                }
                 callback.onFailure(t);
                 return;
             }
 
+            drainPending.set(false);
+            // items offered after the queue was found empty
+            if (queue.isEmpty() || !drainPending.compareAndSet(false, true)) {
+                break;
+            }
         }
 
         callback.onSuccess(Success.INSTANCE);
     }
 
+    private void drain() {
+        final int maxItems = maxBatchSize > 0 ? maxBatchSize : Integer.MAX_VALUE;
+        while (process(maxItems) > 0) {
+            // until the queue is empty
+        }
+    }
+
+    private int process(final int maxItems) {
+        final MetricsListener metrics = metricsListener;
+        if (metrics == null) {
+            return drainBatch(maxItems);
+        }
+
+        final long start = System.nanoTime();
+        int taken = -1;
+        try {
+            taken = drainBatch(maxItems);
+        } finally {
+            if (taken < 0) {
+                metrics.onFailed(this, System.nanoTime() - start);
+            } else if (taken > 0) {
+                metrics.onCompleted(this, System.nanoTime() - start);
+            }
+        }
+        return taken;
+    }
+
     public boolean isRunning() {
         return thread.isRunning();
     }
 
+    /**
+     * Reports measurements of this worker to the listener. Every batch
+     * processed by {@link #drainBatch(int)} is measured as one execution. Set to
+     * <code>null</code> to stop measuring.
+     * 
+     * @param listener
+     */
+    public void setMetricsListener(final MetricsListener listener) {
+        this.metricsListener = listener;
+    }
+
     public SequentialOperationScheduler getThread() {
         return thread;
     }
 
+    /**
+     * Delays processing offered items to collect more of them into one call
+     * to {@link #processItems(List)}.
+     * 
+     * @param delayInMs
+     */
     public void setDelay(final int delayInMs) {
         this.delay = delayInMs;
     }
 
+    /**
+     * Passes items to {@link #processItems(List)} in batches of a limited
+     * size. Processing starts after the linger time has passed since the first
+     * unprocessed item has been offered or once a full batch is available,
+     * whichever comes first. Either way, items are processed on the worker's
+     * thread.
+     * 
+     * @param maxBatchSize
+     *            The maximum number of items per batch; <code>0</code> to
+     *            process all available items at once.
+     * @param maxLingerInMs
+     *            How long to wait for a batch to fill up.
+     */
+    public void setBatching(final int maxBatchSize, final int maxLingerInMs) {
+        this.maxBatchSize = maxBatchSize;
+        this.delay = maxLingerInMs;
+        this.batch = maxBatchSize > 0 ? new ArrayList<GItem>(maxBatchSize) : new ArrayList<GItem>();
+    }
+
     /**
      * Only to create this as a dummy.
      */
@@ -122,6 +293,13 @@ public abstract class SingleInstanceQueueWorker<GItem> {
         this.thread = null;
         this.queue = null;
         this.con = null;
+        this.queued = null;
+        this.drainPending = null;
+        this.lingerOpen = null;
+        this.drainOperation = null;
+        this.drainCallback = null;
+        this.flushTask = null;
+        this.lingerFlush = null;
     }
 
     public SingleInstanceQueueWorker(final Object owner, final Queue<GItem> queue, final Concurrency con) {
@@ -130,6 +308,65 @@ public abstract class SingleInstanceQueueWorker<GItem> {
         this.thread.setEnforceOwnThread(true);
         this.thread.setTimeout(120000);
         this.queue = queue;
+
+        this.batch = new ArrayList<GItem>();
+        this.queued = con.newAtomicInteger(0);
+        this.drainPending = con.newAtomicBoolean(false);
+        this.lingerOpen = con.newAtomicBoolean(false);
+
+        this.drainOperation = new Operation<Object>() {
+
+            @Override
+            public void apply(final ValueCallback<Object> callback) {
+                startDrain(callback);
+            }
+
+        };
+        this.drainCallback = new ValueCallback<Object>() {
+
+            @Override
+            public void onFailure(final Throwable t) {
+                throw new RuntimeException(t);
+            }
+
+            @Override
+            public void onSuccess(final Object value) {
+
+            }
+        };
+        this.flushTask = new Runnable() {
+
+            @Override
+            public void run() {
+                flushIfLingering();
+            }
+
+        };
+        this.lingerFlush = new Runnable() {
+
+            @Override
+            public void run() {
+                final ValueCallback<Object> callback = lingering;
+                lingering = null;
+                perfomActions(callback);
+            }
+
+        };
+    }
+
+    /**
+     * Creates a worker which processes items on a pool shared with other
+     * workers and schedulers.
+     * 
+     * @param owner
+     * @param queue
+     * @param con
+     * @param workerPool
+     */
+    public SingleInstanceQueueWorker(final Object owner, final Queue<GItem> queue, final Concurrency con,
+            final WorkerPool workerPool) {
+        this(owner, queue, con);
+        this.thread.setWorkerPool(workerPool);
     }
 
 }
@@ -0,0 +1,58 @@
+package delight.scheduler;
+
+/**
+ * Describes an operation which was still running when it passed the slow
+ * operation threshold of its scheduler.
+ *
+ */
+public final class SlowOperationReport {
+
+    private final Object operation;
+    private final long queueWait;
+    private final long runTime;
+    private final String stack;
+
+    public Object getOperation() {
+        return operation;
+    }
+
+    /**
+     * @return How long the operation waited to be started in ms.
+     */
+    public long getQueueWait() {
+        return queueWait;
+    }
+
+    /**
+     * @return How long the operation had been running when it was sampled in
+     *         ms.
+     */
+    public long getRunTime() {
+        return runTime;
+    }
+
+    /**
+     * @return The stack of the thread which started the operation at the time
+     *         it was sampled, or <code>null</code> if no {@link StackSampler}
+     *         was available.
+     */
+    public String getStack() {
+        return stack;
+    }
+
+    @Override
+    public String toString() {
+        return "SlowOperationReport [operation=" + operation + ", queueWait=" + queueWait + ", runTime=" + runTime
+                + "]" + (stack != null ? "\n" + stack : "");
+    }
+
+    public SlowOperationReport(final Object operation, final long queueWait, final long runTime,
+            final String stack) {
+        super();
+        this.operation = operation;
+        this.queueWait = queueWait;
+        this.runTime = runTime;
+        this.stack = stack;
+    }
+
+}
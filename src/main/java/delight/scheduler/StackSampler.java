@@ -0,0 +1,26 @@
+package delight.scheduler;
+
+/**
+ * Captures the stack of the thread running an operation. Threads cannot be
+ * inspected on all platforms; see
+ * <code>delight.scheduler.jre.ThreadStackSampler</code> for the JRE.
+ *
+ * @see SequentialOperationScheduler#setSlowOperationThreshold(int,
+ *      StackSampler)
+ */
+public interface StackSampler {
+
+    /**
+     * @return Identifies the calling thread, so that its stack can be sampled
+     *         later.
+     */
+    public Object currentThread();
+
+    /**
+     * @param thread
+     *            As returned by {@link #currentThread()}.
+     * @return The current stack of the thread.
+     */
+    public String sampleStack(Object thread);
+
+}
@@ -0,0 +1,312 @@
+package delight.scheduler;
+
+import delight.concurrency.Concurrency;
+import delight.concurrency.wrappers.SimpleAtomicBoolean;
+import delight.concurrency.wrappers.SimpleAtomicInteger;
+import delight.simplelog.Log;
+
+/**
+ * A hashed timing wheel which triggers timeouts for any number of schedulers
+ * using a single timer.
+ * <p>
+ * Timeouts are placed into buckets by the tick in which they expire. Starting
+ * and cancelling a timeout is O(1) and only locks the bucket concerned. The
+ * tick in which a timeout expires is derived from the clock, so that timeouts
+ * started while the timer lags behind do not fire early. The wheel only ticks
+ * while there are pending timeouts.
+ * <p>
+ * Timeouts fire on the timer thread and should only hand off work. Time is
+ * measured with a {@link Clock}, the monotonic clock by default, while the
+ * timer only triggers the ticks.
+ *
+ */
+public final class TimeoutWheel {
+
+    public static final int DEFAULT_TICK_DURATION = 10;
+    public static final int DEFAULT_BUCKETS = 512;
+
+    private static TimeoutWheel shared;
+
+    private final Concurrency concurrency;
+    private final Clock clock;
+    private final int tickDuration;
+    private final Bucket[] buckets;
+    private final int mask;
+
+    private final SimpleAtomicInteger pending;
+    private final SimpleAtomicBoolean armed;
+
+    /**
+     * The last tick which has been processed. Only advanced by the timer while
+     * holding the lock of the bucket for the tick, or when skipping ticks which
+     * are visited again within the same round.
+     */
+    private volatile long currentTick;
+    private final long origin;
+
+    private final Runnable tickTask;
+
+    /**
+     * A timeout which has been started on this wheel.
+     */
+    public final class Timeout {
+
+        private final Runnable task;
+        private long deadline;
+        private volatile Bucket bucket;
+        private Timeout previous;
+        private Timeout next;
+
+        /**
+         * Starts this timeout. A timeout can be started again once it has fired
+         * or has been cancelled successfully.
+         *
+         * @param delayInMs
+         */
+        public void start(final int delayInMs) {
+            if (bucket != null) {
+                throw new IllegalStateException("Timeout is already pending.");
+            }
+
+            pending.incrementAndGet();
+
+            // the first tick which ends after the delay, measured from now
+            // rather than from the last tick processed, which may lag behind
+            long deadline = (clock.millis() - origin + delayInMs + tickDuration - 1) / tickDuration;
+            while (true) {
+                final Bucket b = buckets[(int) (deadline & mask)];
+                synchronized (b) {
+                    if (deadline > currentTick) {
+                        this.deadline = deadline;
+                        b.add(this);
+                        break;
+                    }
+                }
+                deadline = currentTick + 1;
+            }
+
+            if (!armed.get() && armed.compareAndSet(false, true)) {
+                scheduleTick();
+            }
+        }
+
+        /**
+         * Prevents this timeout from firing.
+         *
+         * @return <code>true</code> if the timeout was still pending.
+         */
+        public boolean cancel() {
+            final Bucket b = bucket;
+            if (b == null) {
+                return false;
+            }
+            synchronized (b) {
+                if (bucket != b) {
+                    return false;
+                }
+                b.remove(this);
+            }
+            pending.decrementAndGet();
+            return true;
+        }
+
+        private Timeout(final Runnable task) {
+            super();
+            this.task = task;
+        }
+
+    }
+
+    private static final class Bucket {
+        private Timeout head;
+
+        private void add(final Timeout timeout) {
+            timeout.bucket = this;
+            timeout.previous = null;
+            timeout.next = head;
+            if (head != null) {
+                head.previous = timeout;
+            }
+            head = timeout;
+        }
+
+        private void remove(final Timeout timeout) {
+            if (timeout.previous != null) {
+                timeout.previous.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.previous = timeout.previous;
+            }
+            timeout.bucket = null;
+            timeout.previous = null;
+            timeout.next = null;
+        }
+
+        /**
+         * Unlinks all timeouts due at the specified tick and prepends them to
+         * the chain of expired timeouts.
+         */
+        private Timeout expire(final long tick, Timeout expired) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                final Timeout next = timeout.next;
+                if (timeout.deadline <= tick) {
+                    remove(timeout);
+                    timeout.next = expired;
+                    expired = timeout;
+                }
+                timeout = next;
+            }
+            return expired;
+        }
+    }
+
+    /**
+     * Runs the task once after the specified delay unless the returned timeout
+     * is cancelled before.
+     *
+     * @param delayInMs
+     * @param task
+     * @return
+     */
+    public Timeout schedule(final int delayInMs, final Runnable task) {
+        final Timeout timeout = new Timeout(task);
+        timeout.start(delayInMs);
+        return timeout;
+    }
+
+    /**
+     * Creates a timeout which is not started yet.
+     *
+     * @param task
+     * @return
+     */
+    public Timeout newTimeout(final Runnable task) {
+        return new Timeout(task);
+    }
+
+    Concurrency getConcurrency() {
+        return concurrency;
+    }
+
+    public int pendingCount() {
+        return pending.get();
+    }
+
+    private void scheduleTick() {
+        concurrency.newTimer().scheduleOnce(tickDuration, tickTask);
+    }
+
+    private void tick() {
+        final long targetTick = (clock.millis() - origin) / tickDuration;
+        if (targetTick - currentTick > buckets.length) {
+            // the wheel was idle; visiting every bucket once expires all
+            // timeouts due until the target tick
+            currentTick = targetTick - buckets.length;
+        }
+
+        Timeout expired = null;
+        while (currentTick < targetTick) {
+            final long tick = currentTick + 1;
+            final Bucket bucket = buckets[(int) (tick & mask)];
+            synchronized (bucket) {
+                currentTick = tick;
+                expired = bucket.expire(tick, expired);
+            }
+        }
+
+        while (expired != null) {
+            final Timeout next = expired.next;
+            expired.next = null;
+            pending.decrementAndGet();
+            try {
+                expired.task.run();
+            } catch (final Throwable t) {
+                Log.warn(this, "Exception while processing timeout: " + t.getMessage(), t);
+            }
+            expired = next;
+        }
+
+        if (pending.get() > 0) {
+            scheduleTick();
+            return;
+        }
+
+        armed.set(false);
+
+        if (pending.get() > 0 && armed.compareAndSet(false, true)) {
+            scheduleTick();
+        }
+    }
+
+    /**
+     * The wheel used by all schedulers which have not been assigned a wheel
+     * explicitly.
+     *
+     * @param concurrency
+     * @return
+     */
+    public static synchronized TimeoutWheel getShared(final Concurrency concurrency) {
+        if (shared == null) {
+            shared = new TimeoutWheel(concurrency, DEFAULT_TICK_DURATION, DEFAULT_BUCKETS);
+        }
+        return shared;
+    }
+
+    /**
+     *
+     * @param concurrency
+     * @param tickDurationInMs
+     *            The resolution of the wheel.
+     * @param bucketCount
+     *            Must be a power of two.
+     */
+    public TimeoutWheel(final Concurrency concurrency, final int tickDurationInMs, final int bucketCount) {
+        this(concurrency, tickDurationInMs, bucketCount, Clocks.monotonic());
+    }
+
+    /**
+     *
+     * @param concurrency
+     * @param tickDurationInMs
+     *            The resolution of the wheel.
+     * @param bucketCount
+     *            Must be a power of two.
+     * @param clock
+     *            Measures when timeouts expire.
+     */
+    public TimeoutWheel(final Concurrency concurrency, final int tickDurationInMs, final int bucketCount,
+            final Clock clock) {
+        super();
+        if (tickDurationInMs <= 0) {
+            throw new IllegalArgumentException("Tick duration must be positive: " + tickDurationInMs);
+        }
+        if (bucketCount <= 0 || (bucketCount & (bucketCount - 1)) != 0) {
+            throw new IllegalArgumentException("Bucket count must be a power of two: " + bucketCount);
+        }
+        this.concurrency = concurrency;
+        this.clock = clock;
+        this.tickDuration = tickDurationInMs;
+        this.buckets = new Bucket[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            this.buckets[i] = new Bucket();
+        }
+        this.mask = bucketCount - 1;
+
+        this.pending = concurrency.newAtomicInteger(0);
+        this.armed = concurrency.newAtomicBoolean(false);
+        this.currentTick = 0;
+        this.origin = clock.millis();
+
+        this.tickTask = new Runnable() {
+
+            @Override
+            public void run() {
+                tick();
+            }
+        };
+    }
+
+}
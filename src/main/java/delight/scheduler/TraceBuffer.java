@@ -0,0 +1,102 @@
+package delight.scheduler;
+
+import delight.concurrency.Concurrency;
+import delight.concurrency.wrappers.SimpleAtomicInteger;
+import delight.simplelog.Log;
+
+/**
+ * A {@link Tracer} which keeps the most recent events in a preallocated ring
+ * buffer. Recording an event claims a slot with a single atomic increment and
+ * does not allocate, so a buffer can stay enabled in production. The events
+ * are only turned into text when the buffer is dumped.
+ * <p>
+ * Events recorded while the buffer is being dumped may appear partially or be
+ * missing from the dump.
+ *
+ */
+public final class TraceBuffer implements Tracer {
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final int mask;
+    private final TraceEvent[] events;
+    private final Object[] sources;
+    private final Object[] operations;
+    private final long[] times;
+
+    private final SimpleAtomicInteger sequence;
+
+    private volatile boolean dumpOnTimeout;
+
+    @Override
+    public void trace(final TraceEvent event, final Object source, final Object operation) {
+        final int slot = sequence.incrementAndGet() & mask;
+        events[slot] = event;
+        sources[slot] = source;
+        operations[slot] = operation;
+        times[slot] = System.nanoTime();
+
+        if (event == TraceEvent.TIMED_OUT && dumpOnTimeout) {
+            Log.warn(this, "Operation timed out: " + operation + "\n" + dump());
+        }
+    }
+
+    /**
+     * @return The recorded events, oldest first, with their time relative to
+     *         the most recent event.
+     */
+    public String dump() {
+        final int last = sequence.get();
+        // the sequence may have wrapped around
+        final int count = last >= 0 && last < events.length ? last : events.length;
+
+        final long latest = times[last & mask];
+        final StringBuilder sb = new StringBuilder();
+        for (int n = 0; n < count; n++) {
+            final int slot = (last - count + 1 + n) & mask;
+            sb.append(String.valueOf((times[slot] - latest) / 1000));
+            sb.append(" us ");
+            sb.append(events[slot]);
+            sb.append(" ");
+            sb.append(sources[slot]);
+            sb.append(": ");
+            sb.append(operations[slot]);
+            sb.append("\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Log the contents of this buffer whenever an operation times out.
+     * 
+     * @param value
+     */
+    public void setDumpOnTimeout(final boolean value) {
+        this.dumpOnTimeout = value;
+    }
+
+    public TraceBuffer(final Concurrency concurrency) {
+        this(concurrency, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * 
+     * @param concurrency
+     * @param capacity
+     *            The number of events kept. Must be a power of two.
+     */
+    public TraceBuffer(final Concurrency concurrency, final int capacity) {
+        super();
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        this.mask = capacity - 1;
+        this.events = new TraceEvent[capacity];
+        this.sources = new Object[capacity];
+        this.operations = new Object[capacity];
+        this.times = new long[capacity];
+        this.sequence = concurrency.newAtomicInteger(0);
+        this.dumpOnTimeout = true;
+    }
+
+}
@@ -0,0 +1,35 @@
+package delight.scheduler;
+
+/**
+ * The events in the life of an operation reported to a {@link Tracer}.
+ *
+ */
+public enum TraceEvent {
+
+    ENQUEUED,
+
+    STARTED,
+
+    COMPLETED,
+
+    FAILED,
+
+    TIMED_OUT,
+
+    /**
+     * The operation has been removed from the queue without being run.
+     */
+    DROPPED,
+
+    /**
+     * The operation has been withdrawn by the caller before it was started.
+     */
+    CANCELLED,
+
+    /**
+     * The running operation has been abandoned since the scheduler was shut
+     * down.
+     */
+    ABORTED
+
+}
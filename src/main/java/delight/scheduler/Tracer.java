@@ -0,0 +1,15 @@
+package delight.scheduler;
+
+/**
+ * Receives the {@link TraceEvent}s of operations. Tracers are called on the
+ * hot path of schedulers and should only record the event; in particular,
+ * they should not call <code>toString</code> on the operation.
+ *
+ * @see TraceBuffer
+ * @see Tracers
+ */
+public interface Tracer {
+
+    public void trace(TraceEvent event, Object source, Object operation);
+
+}
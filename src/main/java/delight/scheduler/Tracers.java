@@ -0,0 +1,53 @@
+package delight.scheduler;
+
+import delight.simplelog.Log;
+
+/**
+ * The available {@link Tracer}s.
+ *
+ */
+public final class Tracers {
+
+    private static final Tracer LOG = new Tracer() {
+
+        @Override
+        public void trace(final TraceEvent event, final Object source, final Object operation) {
+            Log.println(source, event + " " + operation);
+        }
+
+    };
+
+    /**
+     * Prints every event. This is expensive and only meant for debugging a
+     * single scheduler; use a {@link TraceBuffer} otherwise.
+     * 
+     * @return
+     */
+    public static Tracer log() {
+        return LOG;
+    }
+
+    /**
+     * Reports every event to both tracers.
+     * 
+     * @param first
+     * @param second
+     *            May be <code>null</code>, in which case first is returned.
+     * @return
+     */
+    public static Tracer combine(final Tracer first, final Tracer second) {
+        if (second == null) {
+            return first;
+        }
+        return new Tracer() {
+
+            @Override
+            public void trace(final TraceEvent event, final Object source, final Object operation) {
+                first.trace(event, source, operation);
+                second.trace(event, source, operation);
+            }
+
+        };
+    }
+
+}
@@ -0,0 +1,17 @@
+package delight.scheduler;
+
+import java.util.Queue;
+
+/**
+ * Creates the queues in which schedulers, access threads and queue workers
+ * keep their pending work. These queues are offered to by any number of
+ * threads but only ever polled by the one thread currently processing them.
+ * 
+ * @see WorkQueues
+ *
+ */
+public interface WorkQueueFactory {
+
+    public <T> Queue<T> newQueue(Class<T> itemType);
+
+}
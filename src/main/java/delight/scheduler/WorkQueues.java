@@ -0,0 +1,31 @@
+package delight.scheduler;
+
+import java.util.Queue;
+
+import delight.concurrency.Concurrency;
+
+/**
+ * The available {@link WorkQueueFactory}s.
+ *
+ */
+public final class WorkQueues {
+
+    /**
+     * General purpose thread safe queues as provided by the concurrency
+     * implementation.
+     * 
+     * @param concurrency
+     * @return
+     */
+    public static WorkQueueFactory threadSafe(final Concurrency concurrency) {
+        return new WorkQueueFactory() {
+
+            @Override
+            public <T> Queue<T> newQueue(final Class<T> itemType) {
+                return concurrency.newCollection().newThreadSafeQueue(itemType);
+            }
+
+        };
+    }
+
+}
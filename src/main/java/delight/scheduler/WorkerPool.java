@@ -0,0 +1,15 @@
+package delight.scheduler;
+
+/**
+ * Threads on which schedulers run their work instead of on threads of their
+ * own. A pool can be shared by any number of schedulers; every scheduler still
+ * runs its work one task at a time and in order.
+ * 
+ * @see WorkerPools
+ *
+ */
+public interface WorkerPool {
+
+    public void execute(Runnable task);
+
+}
@@ -0,0 +1,59 @@
+package delight.scheduler;
+
+import delight.concurrency.Concurrency;
+import delight.concurrency.wrappers.SimpleExecutor;
+
+/**
+ * The available {@link WorkerPool}s.
+ *
+ */
+public final class WorkerPools {
+
+    public static final int SHARED_THREADS = 8;
+
+    private static WorkerPool shared;
+
+    /**
+     * A pool with a fixed number of threads shared by all schedulers using this
+     * pool.
+     * 
+     * @param concurrency
+     * @return
+     */
+    public static synchronized WorkerPool shared(final Concurrency concurrency) {
+        if (shared == null) {
+            shared = fixed(concurrency, SHARED_THREADS);
+        }
+        return shared;
+    }
+
+    /**
+     * A new pool with a fixed number of threads.
+     * 
+     * @param concurrency
+     * @param threads
+     * @return
+     */
+    public static WorkerPool fixed(final Concurrency concurrency, final int threads) {
+        return executor(concurrency.newExecutor().newParallelExecutor(threads, threads, WorkerPools.class));
+    }
+
+    /**
+     * Runs work on the provided executor. The executor is not shut down
+     * together with the schedulers using it.
+     * 
+     * @param executor
+     * @return
+     */
+    public static WorkerPool executor(final SimpleExecutor executor) {
+        return new WorkerPool() {
+
+            @Override
+            public void execute(final Runnable task) {
+                executor.execute(task);
+            }
+
+        };
+    }
+
+}
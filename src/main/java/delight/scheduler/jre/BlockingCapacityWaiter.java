@@ -0,0 +1,52 @@
+package delight.scheduler.jre;
+
+import delight.scheduler.CapacityWaiter;
+import delight.scheduler.Clocks;
+
+/**
+ * Blocks waiting threads on a monitor until capacity is released.
+ */
+public final class BlockingCapacityWaiter implements CapacityWaiter {
+
+    private final Object monitor = new Object();
+
+    /**
+     * The number of blocked threads. Allows releasing capacity without
+     * acquiring the monitor while nobody waits.
+     */
+    private volatile int waiting;
+
+    @Override
+    public boolean await(final Condition condition, final int timeoutInMs) {
+        final long deadline = Clocks.monotonic().millis() + timeoutInMs;
+        synchronized (monitor) {
+            waiting++;
+            try {
+                while (!condition.tryAcquire()) {
+                    final long remaining = deadline - Clocks.monotonic().millis();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    monitor.wait(remaining);
+                }
+                return true;
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                waiting--;
+            }
+        }
+    }
+
+    @Override
+    public void signal() {
+        if (waiting == 0) {
+            return;
+        }
+        synchronized (monitor) {
+            monitor.notifyAll();
+        }
+    }
+
+}
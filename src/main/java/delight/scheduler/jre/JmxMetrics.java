@@ -0,0 +1,153 @@
+package delight.scheduler.jre;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import delight.scheduler.MetricsRecorder;
+
+/**
+ * Exposes {@link MetricsRecorder}s as MBeans, so that they can be inspected
+ * with JMX clients such as JConsole.
+ *
+ */
+public final class JmxMetrics {
+
+    public static final String DOMAIN = "delight.scheduler";
+
+    /**
+     * Registers the recorder with the platform MBean server.
+     * 
+     * @param name
+     *            Identifies the component the recorder measures.
+     * @param recorder
+     * @return The name under which the recorder has been registered.
+     */
+    public static ObjectName register(final String name, final MetricsRecorder recorder) {
+        try {
+            final ObjectName objectName = new ObjectName(DOMAIN + ":type=Metrics,name=" + ObjectName.quote(name));
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(new Adapter(recorder), objectName);
+            return objectName;
+        } catch (final JMException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void unregister(final ObjectName objectName) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (final JMException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static final class Adapter implements SchedulerMetricsMXBean {
+
+        private final MetricsRecorder recorder;
+
+        @Override
+        public long getEnqueued() {
+            return recorder.getEnqueued();
+        }
+
+        @Override
+        public double getEnqueueRate() {
+            return recorder.getEnqueueRate();
+        }
+
+        @Override
+        public long getCompleted() {
+            return recorder.getCompleted();
+        }
+
+        @Override
+        public long getFailed() {
+            return recorder.getFailed();
+        }
+
+        @Override
+        public long getTimedOut() {
+            return recorder.getTimedOut();
+        }
+
+        @Override
+        public int getQueueDepth() {
+            return recorder.getQueueDepth();
+        }
+
+        @Override
+        public int getMaxQueueDepth() {
+            return recorder.getMaxQueueDepth();
+        }
+
+        @Override
+        public long getQueueWaitMean() {
+            return recorder.getQueueWait().getMean();
+        }
+
+        @Override
+        public long getQueueWaitP99() {
+            return recorder.getQueueWait().getValueAtPercentile(99);
+        }
+
+        @Override
+        public long getQueueWaitMax() {
+            return recorder.getQueueWait().getMax();
+        }
+
+        @Override
+        public long getExecutionTimeMean() {
+            return recorder.getExecutionTime().getMean();
+        }
+
+        @Override
+        public long getExecutionTimeP50() {
+            return recorder.getExecutionTime().getValueAtPercentile(50);
+        }
+
+        @Override
+        public long getExecutionTimeP99() {
+            return recorder.getExecutionTime().getValueAtPercentile(99);
+        }
+
+        @Override
+        public long getExecutionTimeP999() {
+            return recorder.getExecutionTime().getValueAtPercentile(99.9);
+        }
+
+        @Override
+        public long getExecutionTimeMax() {
+            return recorder.getExecutionTime().getMax();
+        }
+
+        @Override
+        public long getCallbackLagMean() {
+            return recorder.getCallbackLag().getMean();
+        }
+
+        @Override
+        public long getCallbackLagP99() {
+            return recorder.getCallbackLag().getValueAtPercentile(99);
+        }
+
+        @Override
+        public long getCallbackLagMax() {
+            return recorder.getCallbackLag().getMax();
+        }
+
+        @Override
+        public void reset() {
+            recorder.reset();
+        }
+
+        private Adapter(final MetricsRecorder recorder) {
+            super();
+            this.recorder = recorder;
+        }
+
+    }
+
+}
@@ -0,0 +1,173 @@
+package delight.scheduler.jre;
+
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import delight.scheduler.WorkQueueFactory;
+
+/**
+ * An unbounded lock-free queue for many producers and a single consumer.
+ * <p>
+ * Offering swaps the new node into the tail with a single atomic operation.
+ * Polling does not use atomic operations on the nodes at all. {@link #size()}
+ * is maintained in a counter and does not traverse the queue; it is only
+ * approximate while items are offered and polled concurrently.
+ * {@link #isEmpty()} checks the nodes themselves, so that it never reports an
+ * item which has been offered completely as missing.
+ * <p>
+ * {@link #offer(Object)}, {@link #size()} and {@link #isEmpty()} may be called
+ * from any thread. All other methods must only be called by the single
+ * consumer.
+ *
+ * @param <E>
+ */
+public final class MpscQueue<E> extends AbstractQueue<E> {
+
+    private static final class Node<E> {
+        private E value;
+        private volatile Node<E> next;
+
+        private Node(final E value) {
+            super();
+            this.value = value;
+        }
+    }
+
+    /**
+     * The node which was consumed last. Only accessed by the consumer.
+     */
+    private Node<E> head;
+
+    /**
+     * The node which was offered last.
+     */
+    private final AtomicReference<Node<E>> tail;
+
+    private final AtomicInteger size;
+
+    @Override
+    public boolean offer(final E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        final Node<E> node = new Node<E>(e);
+        final Node<E> previous = tail.getAndSet(node);
+        previous.next = node;
+        size.incrementAndGet();
+        return true;
+    }
+
+    @Override
+    public E poll() {
+        final Node<E> next = nextNode();
+        if (next == null) {
+            return null;
+        }
+        final E value = next.value;
+        next.value = null;
+        head = next;
+        size.decrementAndGet();
+        return value;
+    }
+
+    @Override
+    public E peek() {
+        final Node<E> next = nextNode();
+        if (next == null) {
+            return null;
+        }
+        return next.value;
+    }
+
+    private Node<E> nextNode() {
+        final Node<E> current = head;
+        Node<E> next = current.next;
+        if (next != null) {
+            return next;
+        }
+        if (current == tail.get()) {
+            return null;
+        }
+        // a producer has swapped the tail but not linked its node yet
+        do {
+            next = current.next;
+        } while (next == null);
+        return next;
+    }
+
+    @Override
+    public int size() {
+        // may be briefly negative while a node is consumed before the
+        // producer has counted it
+        final int value = size.get();
+        return value < 0 ? 0 : value;
+    }
+
+    /**
+     * Exact for the consumer. Other threads may see an outdated head, whose
+     * successor is always linked, so that they can only report an empty queue
+     * as not empty.
+     */
+    @Override
+    public boolean isEmpty() {
+        return head.next == null;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+
+            private Node<E> next = head.next;
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public E next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                final E value = next.value;
+                next = next.next;
+                return value;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+        };
+    }
+
+    /**
+     * Creates {@link MpscQueue}s for schedulers, access threads and queue
+     * workers.
+     * 
+     * @return
+     */
+    public static WorkQueueFactory factory() {
+        return new WorkQueueFactory() {
+
+            @Override
+            public <T> Queue<T> newQueue(final Class<T> itemType) {
+                return new MpscQueue<T>();
+            }
+
+        };
+    }
+
+    public MpscQueue() {
+        super();
+        this.head = new Node<E>(null);
+        this.tail = new AtomicReference<Node<E>>(this.head);
+        this.size = new AtomicInteger(0);
+    }
+
+}
@@ -0,0 +1,48 @@
+package delight.scheduler.jre;
+
+/**
+ * The attributes of a {@link delight.scheduler.MetricsRecorder} as exposed by
+ * {@link JmxMetrics}. Times are in nanoseconds.
+ *
+ */
+public interface SchedulerMetricsMXBean {
+
+    public long getEnqueued();
+
+    public double getEnqueueRate();
+
+    public long getCompleted();
+
+    public long getFailed();
+
+    public long getTimedOut();
+
+    public int getQueueDepth();
+
+    public int getMaxQueueDepth();
+
+    public long getQueueWaitMean();
+
+    public long getQueueWaitP99();
+
+    public long getQueueWaitMax();
+
+    public long getExecutionTimeMean();
+
+    public long getExecutionTimeP50();
+
+    public long getExecutionTimeP99();
+
+    public long getExecutionTimeP999();
+
+    public long getExecutionTimeMax();
+
+    public long getCallbackLagMean();
+
+    public long getCallbackLagP99();
+
+    public long getCallbackLagMax();
+
+    public void reset();
+
+}
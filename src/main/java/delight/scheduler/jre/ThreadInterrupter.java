@@ -0,0 +1,33 @@
+package delight.scheduler.jre;
+
+import delight.scheduler.Interrupter;
+
+/**
+ * Interrupts JVM threads, which ends blocking calls such as
+ * {@link Thread#sleep(long)}, {@link Object#wait()} and interruptible I/O.
+ *
+ */
+public final class ThreadInterrupter implements Interrupter {
+
+    public static final ThreadInterrupter INSTANCE = new ThreadInterrupter();
+
+    @Override
+    public Object currentThread() {
+        return Thread.currentThread();
+    }
+
+    @Override
+    public void interrupt(final Object thread) {
+        ((Thread) thread).interrupt();
+    }
+
+    @Override
+    public void clearInterrupt() {
+        Thread.interrupted();
+    }
+
+    private ThreadInterrupter() {
+        super();
+    }
+
+}
@@ -0,0 +1,33 @@
+package delight.scheduler.jre;
+
+import delight.scheduler.StackSampler;
+
+/**
+ * Samples the stacks of JVM threads.
+ *
+ */
+public final class ThreadStackSampler implements StackSampler {
+
+    public static final ThreadStackSampler INSTANCE = new ThreadStackSampler();
+
+    @Override
+    public Object currentThread() {
+        return Thread.currentThread();
+    }
+
+    @Override
+    public String sampleStack(final Object thread) {
+        final Thread t = (Thread) thread;
+        final StringBuilder sb = new StringBuilder();
+        sb.append("\"").append(t.getName()).append("\" ").append(t.getState()).append("\n");
+        for (final StackTraceElement element : t.getStackTrace()) {
+            sb.append("\tat ").append(element).append("\n");
+        }
+        return sb.toString();
+    }
+
+    private ThreadStackSampler() {
+        super();
+    }
+
+}
@@ -0,0 +1,63 @@
+package delight.scheduler.jre;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import delight.scheduler.CallbackDispatcher;
+import delight.scheduler.WorkerPool;
+import delight.simplelog.Log;
+
+/**
+ * Starts a virtual thread for every task. Serves both as the
+ * {@link WorkerPool} and the {@link CallbackDispatcher} of schedulers.
+ * 
+ * @see VirtualThreads
+ *
+ */
+public final class VirtualThreadPool implements WorkerPool, CallbackDispatcher {
+
+    private final ExecutorService executor;
+
+    @Override
+    public void execute(final Runnable task) {
+        executor.execute(task);
+    }
+
+    @Override
+    public void dispatch(final Runnable callbackTask) {
+        executor.execute(callbackTask);
+    }
+
+    /**
+     * Waits for running tasks to finish and rejects new ones.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Creates a new pool. The executor for virtual threads is looked up at
+     * runtime, so that this class can be loaded on JVMs before Java 21.
+     * 
+     * @return <code>null</code> if the JVM does not support virtual threads.
+     */
+    public static VirtualThreadPool create() {
+        try {
+            final Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return new VirtualThreadPool((ExecutorService) factory.invoke(null));
+        } catch (final NoSuchMethodException e) {
+            return null;
+        } catch (final Exception e) {
+            // for instance, virtual threads are a preview feature which is not enabled
+            Log.warn(VirtualThreadPool.class, "Virtual threads cannot be used: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private VirtualThreadPool(final ExecutorService executor) {
+        super();
+        this.executor = executor;
+    }
+
+}
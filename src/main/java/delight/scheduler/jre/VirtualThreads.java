@@ -0,0 +1,65 @@
+package delight.scheduler.jre;
+
+import delight.concurrency.Concurrency;
+import delight.scheduler.BetterAccessThreadImplementation;
+import delight.scheduler.CallbackDispatcher;
+import delight.scheduler.CallbackDispatchers;
+import delight.scheduler.SequentialOperationScheduler;
+import delight.scheduler.WorkerPool;
+import delight.scheduler.WorkerPools;
+
+/**
+ * Runs operations and callbacks of schedulers on virtual threads, so that
+ * operations can block cheaply.
+ * <p>
+ * Virtual threads are only available on JVMs which support them (Java 21 and
+ * above). On other JVMs, {@link #configure(SequentialOperationScheduler)}
+ * leaves the scheduler as it is, while the pool and dispatcher returned here
+ * are the shared {@link WorkerPools} and {@link CallbackDispatchers}.
+ *
+ */
+public final class VirtualThreads {
+
+    private static final VirtualThreadPool POOL = VirtualThreadPool.create();
+
+    public static boolean isSupported() {
+        return POOL != null;
+    }
+
+    public static WorkerPool workerPool(final Concurrency concurrency) {
+        if (POOL == null) {
+            return WorkerPools.shared(concurrency);
+        }
+        return POOL;
+    }
+
+    public static CallbackDispatcher callbackDispatcher(final Concurrency concurrency) {
+        if (POOL == null) {
+            return CallbackDispatchers.shared(concurrency);
+        }
+        return POOL;
+    }
+
+    /**
+     * Configures the scheduler to run every operation and callback on a
+     * virtual thread.
+     * 
+     * @param scheduler
+     * @return <code>false</code> if virtual threads are not supported, in which
+     *         case the scheduler is not changed.
+     */
+    public static boolean configure(final SequentialOperationScheduler scheduler) {
+        if (POOL == null) {
+            return false;
+        }
+        scheduler.setWorkerPool(POOL);
+        scheduler.setCallbackDispatcher(POOL);
+        scheduler.setEnforceOwnThread(true);
+        return true;
+    }
+
+    public static BetterAccessThreadImplementation newAccessThread(final Concurrency concurrency) {
+        return new BetterAccessThreadImplementation(concurrency, workerPool(concurrency), MpscQueue.factory());
+    }
+
+}
@@ -0,0 +1,230 @@
+package delight.scheduler.tests;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import delight.async.callbacks.SimpleCallback;
+import delight.concurrency.Concurrency;
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.concurrency.schedule.Step;
+import delight.scheduler.BetterAccessThreadImplementation;
+import delight.scheduler.RejectedOperationException;
+import delight.scheduler.WorkQueueFactory;
+import delight.scheduler.WorkerPools;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestAccessThread {
+
+    @Test
+    public void test_external_mutex_excludes_steps() throws Exception {
+        final BetterAccessThreadImplementation accessThread = new BetterAccessThreadImplementation(
+                ConcurrencyJre.create());
+        accessThread.setDrainBudget(64, 0);
+
+        final int steps = 2000;
+        final AtomicInteger inside = new AtomicInteger(0);
+        final AtomicBoolean overlapped = new AtomicBoolean(false);
+        final CountDownLatch processed = new CountDownLatch(steps);
+
+        final Thread external = new Thread() {
+
+            @Override
+            public void run() {
+                while (processed.getCount() > 0) {
+                    accessThread.acquireMutex();
+                    try {
+                        if (inside.incrementAndGet() != 1) {
+                            overlapped.set(true);
+                        }
+                        inside.decrementAndGet();
+                    } finally {
+                        accessThread.releaseMutex();
+                    }
+                }
+            }
+        };
+        external.start();
+
+        for (int i = 0; i < steps; i++) {
+            accessThread.offer(new Step() {
+
+                @Override
+                public void process() {
+                    if (inside.incrementAndGet() != 1) {
+                        overlapped.set(true);
+                    }
+                    inside.decrementAndGet();
+                    processed.countDown();
+                }
+            });
+            accessThread.startIfRequired();
+        }
+
+        Assert.assertTrue(processed.await(5, TimeUnit.SECONDS));
+        external.join();
+        Assert.assertFalse(overlapped.get());
+    }
+
+    @Test
+    public void test_drained_up_to_ignores_later_steps() throws Exception {
+        final BetterAccessThreadImplementation accessThread = new BetterAccessThreadImplementation(
+                ConcurrencyJre.create());
+
+        final CountDownLatch laterStepsBlocked = new CountDownLatch(1);
+        final AtomicInteger processed = new AtomicInteger(0);
+        final CountDownLatch drained = new CountDownLatch(1);
+        final AtomicInteger processedWhenDrained = new AtomicInteger(-1);
+
+        for (int i = 0; i < 3; i++) {
+            accessThread.offer(new Step() {
+
+                @Override
+                public void process() {
+                    processed.incrementAndGet();
+                }
+            });
+        }
+        final int sequence = accessThread.currentSequence();
+
+        accessThread.offer(new Step() {
+
+            @Override
+            public void process() {
+                try {
+                    laterStepsBlocked.await();
+                } catch (final InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        accessThread.setDrainBudget(1, 0);
+
+        accessThread.whenDrainedUpTo(sequence, new SimpleCallback() {
+
+            @Override
+            public void onSuccess() {
+                processedWhenDrained.set(processed.get());
+                drained.countDown();
+            }
+
+            @Override
+            public void onFailure(final Throwable t) {
+            }
+        });
+
+        Assert.assertTrue(drained.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(3, processedWhenDrained.get());
+        laterStepsBlocked.countDown();
+    }
+
+    @Test
+    public void test_shutdown_can_be_requested_repeatedly() throws Exception {
+        final BetterAccessThreadImplementation accessThread = new BetterAccessThreadImplementation(
+                ConcurrencyJre.create());
+
+        final CountDownLatch shutDown = new CountDownLatch(2);
+        final CountDownLatch alreadyShutDown = new CountDownLatch(1);
+
+        accessThread.offer(new Step() {
+
+            @Override
+            public void process() {
+            }
+        });
+        accessThread.requestShutdown(countDown(shutDown));
+        accessThread.requestShutdown(countDown(shutDown));
+        Assert.assertTrue(shutDown.await(1, TimeUnit.SECONDS));
+
+        accessThread.requestShutdown(countDown(alreadyShutDown));
+        Assert.assertTrue(alreadyShutDown.await(1, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Test that a step offered while the thread shuts down is either rejected
+     * or processed, never left in the queue.
+     */
+    @Test
+    public void test_step_offered_during_shutdown_is_not_lost() throws Exception {
+        final Concurrency concurrency = ConcurrencyJre.create();
+
+        // widens the gap between checking for shutdown and queueing the step
+        final WorkQueueFactory slowOffers = new WorkQueueFactory() {
+
+            @Override
+            public <T> Queue<T> newQueue(final Class<T> itemType) {
+                return new ConcurrentLinkedQueue<T>() {
+
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    public boolean offer(final T item) {
+                        try {
+                            Thread.sleep(1);
+                        } catch (final InterruptedException e) {
+                            throw new RuntimeException(e);
+                        }
+                        return super.offer(item);
+                    }
+                };
+            }
+        };
+
+        for (int i = 0; i < 50; i++) {
+            final BetterAccessThreadImplementation accessThread = new BetterAccessThreadImplementation(concurrency,
+                    WorkerPools.shared(concurrency), slowOffers);
+            final AtomicInteger accepted = new AtomicInteger(0);
+            final AtomicInteger processed = new AtomicInteger(0);
+
+            final Thread offering = new Thread() {
+
+                @Override
+                public void run() {
+                    while (true) {
+                        try {
+                            accessThread.offer(new Step() {
+
+                                @Override
+                                public void process() {
+                                    processed.incrementAndGet();
+                                }
+                            });
+                        } catch (final RejectedOperationException e) {
+                            return;
+                        }
+                        accepted.incrementAndGet();
+                        accessThread.startIfRequired();
+                    }
+                }
+            };
+            offering.start();
+
+            final CountDownLatch shutDown = new CountDownLatch(1);
+            accessThread.requestShutdown(countDown(shutDown));
+            Assert.assertTrue(shutDown.await(1, TimeUnit.SECONDS));
+            offering.join();
+
+            Assert.assertEquals(accepted.get(), processed.get());
+        }
+    }
+
+    private static SimpleCallback countDown(final CountDownLatch latch) {
+        return new SimpleCallback() {
+
+            @Override
+            public void onSuccess() {
+                latch.countDown();
+            }
+
+            @Override
+            public void onFailure(final Throwable t) {
+            }
+        };
+    }
+
+}
@@ -0,0 +1,246 @@
+package delight.scheduler.tests;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import delight.async.Operation;
+import delight.async.callbacks.ValueCallback;
+import delight.async.jre.Async;
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.functional.Success;
+import delight.scheduler.CancellableOperation;
+import delight.scheduler.CancellationToken;
+import delight.scheduler.CancelledOperationException;
+import delight.scheduler.OperationHandle;
+import delight.scheduler.ParallelRequestTimeEnforcer;
+import delight.scheduler.SequentialOperationScheduler;
+import delight.scheduler.jre.ThreadInterrupter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestCancellation {
+
+    @Test
+    public void test_queued_operation_is_withdrawn() throws Exception {
+        final SequentialOperationScheduler scheduler = new SequentialOperationScheduler(this,
+                ConcurrencyJre.create());
+        final AtomicBoolean ran = new AtomicBoolean(false);
+        final CountDownLatch cancelled = new CountDownLatch(1);
+
+        scheduler.suspend();
+        final OperationHandle handle = scheduler.schedule(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                ran.set(true);
+                callback.onSuccess(Success.INSTANCE);
+            }
+        }, new ValueCallback<Success>() {
+
+            @Override
+            public void onFailure(final Throwable t) {
+                if (t instanceof CancelledOperationException) {
+                    cancelled.countDown();
+                }
+            }
+
+            @Override
+            public void onSuccess(final Success value) {
+            }
+        });
+        Assert.assertTrue(handle.cancel());
+        Assert.assertFalse(handle.cancel());
+
+        final String result = Async.waitFor(new Operation<String>() {
+
+            @Override
+            public void apply(final ValueCallback<String> callback) {
+                scheduler.schedule(new Operation<String>() {
+
+                    @Override
+                    public void apply(final ValueCallback<String> callback) {
+                        callback.onSuccess("done");
+                    }
+                }, callback);
+                scheduler.resume();
+            }
+        });
+        Assert.assertEquals("done", result);
+        Assert.assertFalse(ran.get());
+        Assert.assertTrue(cancelled.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void test_late_cancel_does_not_affect_recycled_entry() throws Exception {
+        final SequentialOperationScheduler scheduler = new SequentialOperationScheduler(this,
+                ConcurrencyJre.create());
+        scheduler.setRecycleEntries(true);
+
+        final CountDownLatch completed = new CountDownLatch(1);
+        final OperationHandle handle = scheduler.schedule(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                callback.onSuccess(Success.INSTANCE);
+            }
+        }, new ValueCallback<Success>() {
+
+            @Override
+            public void onFailure(final Throwable t) {
+            }
+
+            @Override
+            public void onSuccess(final Success value) {
+                completed.countDown();
+            }
+        });
+        Assert.assertTrue(completed.await(1, TimeUnit.SECONDS));
+        // the entry is recycled once the callback returns
+        Thread.sleep(50);
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicBoolean tokenCancelled = new AtomicBoolean(false);
+        final AtomicReference<ValueCallback<Success>> running = new AtomicReference<ValueCallback<Success>>();
+        scheduler.schedule(new CancellableOperation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+            }
+
+            @Override
+            public void apply(final CancellationToken token, final ValueCallback<Success> callback) {
+                token.onCancel(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        tokenCancelled.set(true);
+                    }
+                });
+                running.set(callback);
+                started.countDown();
+            }
+        }, new ValueCallback<Success>() {
+
+            @Override
+            public void onFailure(final Throwable t) {
+            }
+
+            @Override
+            public void onSuccess(final Success value) {
+            }
+        });
+        Assert.assertTrue(started.await(1, TimeUnit.SECONDS));
+
+        Assert.assertFalse(handle.cancel());
+        Assert.assertFalse(tokenCancelled.get());
+
+        running.get().onSuccess(Success.INSTANCE);
+    }
+
+    @Test
+    public void test_cleanup_runs_on_timeout() throws Exception {
+        final ParallelRequestTimeEnforcer enforcer = new ParallelRequestTimeEnforcer(20, ConcurrencyJre.create());
+        final CountDownLatch cleanedUp = new CountDownLatch(1);
+
+        try {
+            Async.waitFor(new Operation<Success>() {
+
+                @Override
+                public void apply(final ValueCallback<Success> callback) {
+                    enforcer.perform(new CancellableOperation<Success>() {
+
+                        @Override
+                        public void apply(final CancellationToken token, final ValueCallback<Success> callback) {
+                            // never completes
+                            token.onCancel(new Runnable() {
+
+                                @Override
+                                public void run() {
+                                    cleanedUp.countDown();
+                                }
+                            });
+                        }
+
+                        @Override
+                        public void apply(final ValueCallback<Success> callback) {
+                            apply(new CancellationToken(), callback);
+                        }
+                    }, callback);
+                }
+            });
+            Assert.fail("Operation should have timed out.");
+        } catch (final RuntimeException e) {
+            assertTimedOut(e);
+        }
+
+        Assert.assertTrue(cleanedUp.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void test_blocked_operation_is_interrupted() throws Exception {
+        final SequentialOperationScheduler scheduler = new SequentialOperationScheduler(this,
+                ConcurrencyJre.create());
+        scheduler.setEnforceOwnThread(true);
+        scheduler.setTimeout(50);
+        scheduler.setInterrupter(ThreadInterrupter.INSTANCE);
+
+        final CountDownLatch interrupted = new CountDownLatch(1);
+
+        try {
+            Async.waitFor(new Operation<Success>() {
+
+                @Override
+                public void apply(final ValueCallback<Success> callback) {
+                    scheduler.schedule(new Operation<Success>() {
+
+                        @Override
+                        public void apply(final ValueCallback<Success> callback) {
+                            try {
+                                Thread.sleep(10000);
+                            } catch (final InterruptedException e) {
+                                interrupted.countDown();
+                            }
+                        }
+                    }, callback);
+                }
+            });
+            Assert.fail("Operation should have timed out.");
+        } catch (final RuntimeException e) {
+            assertTimedOut(e);
+        }
+
+        Assert.assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+
+        // the operation thread is free for the next operation
+        final String result = Async.waitFor(new Operation<String>() {
+
+            @Override
+            public void apply(final ValueCallback<String> callback) {
+                scheduler.schedule(new Operation<String>() {
+
+                    @Override
+                    public void apply(final ValueCallback<String> callback) {
+                        Assert.assertFalse(Thread.currentThread().isInterrupted());
+                        callback.onSuccess("done");
+                    }
+                }, callback);
+            }
+        });
+        Assert.assertEquals("done", result);
+    }
+
+    private static void assertTimedOut(final Throwable t) {
+        Throwable cause = t;
+        while (cause != null) {
+            if (cause.getMessage() != null && cause.getMessage().contains("timed out")) {
+                return;
+            }
+            cause = cause.getCause();
+        }
+        throw new AssertionError("Operation did not time out: " + t);
+    }
+
+}
@@ -0,0 +1,126 @@
+package delight.scheduler.tests;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import delight.async.Operation;
+import delight.async.callbacks.ValueCallback;
+import delight.async.jre.Async;
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.functional.Success;
+import delight.scheduler.OverflowPolicy;
+import delight.scheduler.RejectedOperationException;
+import delight.scheduler.SequentialOperationScheduler;
+import delight.scheduler.jre.BlockingCapacityWaiter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestCapacity {
+
+    private static Operation<Integer> returning(final int value) {
+        return new Operation<Integer>() {
+
+            @Override
+            public void apply(final ValueCallback<Integer> callback) {
+                callback.onSuccess(value);
+            }
+        };
+    }
+
+    /**
+     * Schedules four operations on a suspended scheduler with capacity for two
+     * and reports the results in the order received.
+     */
+    private List<String> scheduleBeyondCapacity(final SequentialOperationScheduler scheduler) {
+        final List<String> results = Collections.synchronizedList(new ArrayList<String>());
+
+        scheduler.suspend();
+        Async.waitFor(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                final int count = 4;
+                for (int i = 0; i < count; i++) {
+                    scheduler.trySchedule(returning(i), new ValueCallback<Integer>() {
+
+                        @Override
+                        public void onFailure(final Throwable t) {
+                            Assert.assertTrue(t instanceof RejectedOperationException);
+                            report("rejected");
+                        }
+
+                        @Override
+                        public void onSuccess(final Integer value) {
+                            report(String.valueOf(value));
+                        }
+
+                        private void report(final String result) {
+                            results.add(result);
+                            if (results.size() == count) {
+                                callback.onSuccess(Success.INSTANCE);
+                            }
+                        }
+                    });
+                }
+                scheduler.resume();
+            }
+        });
+        return results;
+    }
+
+    @Test
+    public void test_reject() {
+        final SequentialOperationScheduler scheduler = new SequentialOperationScheduler(this,
+                ConcurrencyJre.create());
+        scheduler.setCapacity(2, OverflowPolicy.REJECT);
+
+        final List<String> results = scheduleBeyondCapacity(scheduler);
+        Assert.assertEquals(2, Collections.frequency(results, "rejected"));
+        Assert.assertTrue(results.contains("0"));
+        Assert.assertTrue(results.contains("1"));
+    }
+
+    @Test
+    public void test_drop_oldest() {
+        final SequentialOperationScheduler scheduler = new SequentialOperationScheduler(this,
+                ConcurrencyJre.create());
+        scheduler.setCapacity(2, OverflowPolicy.DROP_OLDEST);
+
+        final List<String> results = scheduleBeyondCapacity(scheduler);
+        Assert.assertEquals(2, Collections.frequency(results, "rejected"));
+        Assert.assertTrue(results.contains("2"));
+        Assert.assertTrue(results.contains("3"));
+    }
+
+    @Test
+    public void test_block_until_timeout() {
+        final SequentialOperationScheduler scheduler = new SequentialOperationScheduler(this,
+                ConcurrencyJre.create());
+        scheduler.setCapacity(1, OverflowPolicy.BLOCK);
+        scheduler.setCapacityWaiter(new BlockingCapacityWaiter(), 50);
+
+        scheduler.suspend();
+        scheduler.schedule(returning(0), new ValueCallback<Integer>() {
+
+            @Override
+            public void onFailure(final Throwable t) {
+            }
+
+            @Override
+            public void onSuccess(final Integer value) {
+            }
+        });
+
+        final long start = System.currentTimeMillis();
+        try {
+            scheduler.schedule(returning(1), null);
+            Assert.fail("Operation should have been rejected.");
+        } catch (final RejectedOperationException e) {
+            Assert.assertTrue(System.currentTimeMillis() - start >= 40);
+        }
+        Assert.assertEquals(1, scheduler.scheduledCount());
+    }
+
+}
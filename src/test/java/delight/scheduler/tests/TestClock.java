@@ -0,0 +1,112 @@
+package delight.scheduler.tests;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import delight.async.Operation;
+import delight.async.callbacks.ValueCallback;
+import delight.concurrency.Concurrency;
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.functional.Success;
+import delight.scheduler.CachedClock;
+import delight.scheduler.Clocks;
+import delight.scheduler.ManualClock;
+import delight.scheduler.SequentialOperationScheduler;
+import delight.scheduler.TimeoutWheel;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestClock {
+
+    @Test
+    public void test_timeout_follows_manual_clock() throws Exception {
+        final Concurrency concurrency = ConcurrencyJre.create();
+        final ManualClock clock = new ManualClock();
+        final SequentialOperationScheduler scheduler = new SequentialOperationScheduler(this, concurrency);
+        scheduler.setClock(clock);
+        scheduler.setTimeoutWheel(new TimeoutWheel(concurrency, 10, 64, clock));
+        scheduler.setTimeout(1000);
+
+        final CountDownLatch timedOut = new CountDownLatch(1);
+        scheduler.schedule(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                // never completes
+            }
+        }, new ValueCallback<Success>() {
+
+            @Override
+            public void onFailure(final Throwable t) {
+                timedOut.countDown();
+            }
+
+            @Override
+            public void onSuccess(final Success value) {
+            }
+        });
+
+        // real time passing does not matter
+        Assert.assertFalse(timedOut.await(100, TimeUnit.MILLISECONDS));
+
+        clock.advance(999);
+        Assert.assertFalse(timedOut.await(100, TimeUnit.MILLISECONDS));
+
+        clock.advance(100);
+        Assert.assertTrue(timedOut.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void test_timeout_does_not_fire_early_when_timer_lags() throws Exception {
+        final Concurrency concurrency = ConcurrencyJre.create();
+        final ManualClock clock = new ManualClock();
+        final TimeoutWheel wheel = new TimeoutWheel(concurrency, 10, 64, clock);
+
+        final CountDownLatch stalled = new CountDownLatch(1);
+        final CountDownLatch resume = new CountDownLatch(1);
+        wheel.newTimeout(new Runnable() {
+
+            @Override
+            public void run() {
+                stalled.countDown();
+                try {
+                    resume.await();
+                } catch (final InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }).start(10);
+
+        clock.advance(10);
+        Assert.assertTrue(stalled.await(1, TimeUnit.SECONDS));
+
+        // the timer is stuck while time passes
+        clock.advance(1000);
+
+        final CountDownLatch fired = new CountDownLatch(1);
+        wheel.newTimeout(new Runnable() {
+
+            @Override
+            public void run() {
+                fired.countDown();
+            }
+        }).start(100);
+
+        resume.countDown();
+        Assert.assertFalse(fired.await(200, TimeUnit.MILLISECONDS));
+
+        clock.advance(100);
+        Assert.assertTrue(fired.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void test_cached_clock_advances() throws Exception {
+        final CachedClock clock = Clocks.cached(ConcurrencyJre.create(), 5);
+        final long start = clock.millis();
+        Thread.sleep(100);
+        Assert.assertTrue(clock.millis() - start >= 50);
+        clock.stop();
+    }
+
+}
@@ -0,0 +1,78 @@
+package delight.scheduler.tests;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import delight.async.Operation;
+import delight.async.callbacks.ValueCallback;
+import delight.async.jre.Async;
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.functional.Success;
+import delight.scheduler.SequentialOperationScheduler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestCoalescing {
+
+    /**
+     * Test that requests with the same key scheduled while the first one is
+     * still waiting are served by a single run.
+     */
+    @Test
+    public void test_coalesce_pending_requests() {
+        final SequentialOperationScheduler scheduler = new SequentialOperationScheduler(this,
+                ConcurrencyJre.create());
+
+        final AtomicInteger runs = new AtomicInteger(0);
+        final Operation<Integer> refresh = new Operation<Integer>() {
+
+            @Override
+            public void apply(final ValueCallback<Integer> callback) {
+                callback.onSuccess(runs.incrementAndGet());
+            }
+        };
+
+        final int requests = 10;
+        final AtomicInteger results = new AtomicInteger(0);
+
+        scheduler.suspend();
+        Async.waitFor(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                for (int i = 0; i < requests; i++) {
+                    scheduler.scheduleCoalesced("refresh", refresh, new ValueCallback<Integer>() {
+
+                        @Override
+                        public void onFailure(final Throwable t) {
+                            callback.onFailure(t);
+                        }
+
+                        @Override
+                        public void onSuccess(final Integer value) {
+                            Assert.assertEquals(1, value.intValue());
+                            if (results.incrementAndGet() == requests) {
+                                callback.onSuccess(Success.INSTANCE);
+                            }
+                        }
+                    });
+                }
+                Assert.assertEquals(1, scheduler.scheduledCount());
+                scheduler.resume();
+            }
+        });
+
+        Assert.assertEquals(1, runs.get());
+
+        // the first run has completed, so a new request runs again
+        final Integer value = Async.waitFor(new Operation<Integer>() {
+
+            @Override
+            public void apply(final ValueCallback<Integer> callback) {
+                scheduler.scheduleCoalesced("refresh", refresh, callback);
+            }
+        });
+        Assert.assertEquals(2, value.intValue());
+    }
+
+}
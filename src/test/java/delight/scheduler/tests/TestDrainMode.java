@@ -0,0 +1,233 @@
+package delight.scheduler.tests;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import delight.async.Operation;
+import delight.async.callbacks.ValueCallback;
+import delight.async.jre.Async;
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.functional.Success;
+import delight.scheduler.SequentialOperationScheduler;
+import delight.scheduler.WorkerPool;
+import delight.scheduler.WorkerPools;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestDrainMode {
+
+    /**
+     * Test that operations drained in batches are still run in order.
+     */
+    @Test
+    public void test_order_of_drained_operations() {
+        final SequentialOperationScheduler scheduler = new SequentialOperationScheduler(this, ConcurrencyJre.create());
+        scheduler.setEnforceOwnThread(true);
+        scheduler.setDrainBatchSize(16);
+
+        assertOrder(scheduler);
+    }
+
+    /**
+     * Test that operations are run in order when entries are reused.
+     */
+    @Test
+    public void test_order_with_recycled_entries() {
+        final SequentialOperationScheduler scheduler = new SequentialOperationScheduler(this, ConcurrencyJre.create());
+        scheduler.setEnforceOwnThread(true);
+        scheduler.setDrainBatchSize(16);
+        scheduler.setRecycleEntries(true);
+
+        assertOrder(scheduler);
+    }
+
+    /**
+     * Test that operations scheduled from within a running operation are taken
+     * over by its drain instead of being submitted to the pool one by one.
+     */
+    @Test
+    public void test_drain_saves_executor_hops() {
+        final AtomicInteger submissions = new AtomicInteger(0);
+        final WorkerPool pool = WorkerPools.fixed(ConcurrencyJre.create(), 1);
+
+        final SequentialOperationScheduler scheduler = new SequentialOperationScheduler(this, ConcurrencyJre.create());
+        scheduler.setEnforceOwnThread(true);
+        scheduler.setDrainBatchSize(16);
+        scheduler.setWorkerPool(new WorkerPool() {
+
+            @Override
+            public void execute(final Runnable task) {
+                submissions.incrementAndGet();
+                pool.execute(task);
+            }
+        });
+
+        final int count = 32;
+        Async.waitFor(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                scheduleChained(scheduler, 0, count, callback);
+            }
+        });
+
+        Assert.assertEquals(count / 16, submissions.get());
+
+        Async.waitFor(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                scheduler.shutdown(callback);
+            }
+        });
+    }
+
+    /**
+     * Test that an operation which hangs inside apply does not keep the
+     * operations after it once it timed out.
+     */
+    @Test
+    public void test_next_operation_runs_after_hung_operation_timed_out() throws Exception {
+        final SequentialOperationScheduler scheduler = new SequentialOperationScheduler(this, ConcurrencyJre.create());
+        scheduler.setEnforceOwnThread(true);
+        scheduler.setDrainBatchSize(16);
+        scheduler.setTimeout(100);
+        scheduler.setWorkerPool(WorkerPools.fixed(ConcurrencyJre.create(), 2));
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch timedOut = new CountDownLatch(1);
+        final CountDownLatch nextRun = new CountDownLatch(1);
+
+        scheduler.schedule(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }, new ValueCallback<Success>() {
+
+            @Override
+            public void onFailure(final Throwable t) {
+                timedOut.countDown();
+            }
+
+            @Override
+            public void onSuccess(final Success value) {
+            }
+        });
+
+        scheduler.schedule(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                callback.onSuccess(Success.INSTANCE);
+            }
+        }, new ValueCallback<Success>() {
+
+            @Override
+            public void onFailure(final Throwable t) {
+            }
+
+            @Override
+            public void onSuccess(final Success value) {
+                nextRun.countDown();
+            }
+        });
+
+        try {
+            Assert.assertTrue(timedOut.await(2, TimeUnit.SECONDS));
+            Assert.assertTrue(nextRun.await(2, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    private void scheduleChained(final SequentialOperationScheduler scheduler, final int index, final int count,
+            final ValueCallback<Success> done) {
+        scheduler.schedule(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                if (index + 1 < count) {
+                    scheduleChained(scheduler, index + 1, count, done);
+                }
+                callback.onSuccess(Success.INSTANCE);
+            }
+
+        }, new ValueCallback<Success>() {
+
+            @Override
+            public void onFailure(final Throwable t) {
+                done.onFailure(t);
+            }
+
+            @Override
+            public void onSuccess(final Success value) {
+                if (index == count - 1) {
+                    done.onSuccess(value);
+                }
+            }
+        });
+    }
+
+    private void assertOrder(final SequentialOperationScheduler scheduler) {
+
+        final List<Integer> executed = Collections.synchronizedList(new ArrayList<Integer>());
+        final int count = 1000;
+
+        Async.waitFor(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                for (int i = 0; i < count; i++) {
+                    final int index = i;
+                    scheduler.schedule(new Operation<Success>() {
+
+                        @Override
+                        public void apply(final ValueCallback<Success> callback) {
+                            executed.add(index);
+                            callback.onSuccess(Success.INSTANCE);
+                        }
+
+                    }, new ValueCallback<Success>() {
+
+                        @Override
+                        public void onFailure(final Throwable t) {
+                            callback.onFailure(t);
+                        }
+
+                        @Override
+                        public void onSuccess(final Success value) {
+                            if (index == count - 1) {
+                                callback.onSuccess(value);
+                            }
+                        }
+                    });
+                }
+            }
+        });
+
+        Assert.assertEquals(count, executed.size());
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals(i, executed.get(i).intValue());
+        }
+
+        Async.waitFor(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                scheduler.shutdown(callback);
+            }
+        });
+    }
+
+}
@@ -0,0 +1,204 @@
+package delight.scheduler.tests;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import delight.async.Operation;
+import delight.async.callbacks.ValueCallback;
+import delight.async.jre.Async;
+import delight.concurrency.Concurrency;
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.functional.Success;
+import delight.scheduler.CallbackDispatchers;
+import delight.scheduler.KeyedSequentialScheduler;
+import delight.scheduler.RejectedOperationException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestKeyedSequentialScheduler {
+
+    /**
+     * Test that operations for the same key run in order and one at a time
+     * and that lanes are removed once they are idle.
+     */
+    @Test
+    public void test_order_per_key() {
+        final Concurrency concurrency = ConcurrencyJre.create();
+        final KeyedSequentialScheduler<Integer> scheduler = new KeyedSequentialScheduler<Integer>(concurrency);
+
+        final int keyCount = 20;
+        final int operationCount = 200;
+
+        final AtomicBoolean[] busy = new AtomicBoolean[keyCount];
+        final AtomicInteger[] next = new AtomicInteger[keyCount];
+        for (int k = 0; k < keyCount; k++) {
+            busy[k] = new AtomicBoolean(false);
+            next[k] = new AtomicInteger(0);
+        }
+
+        final AtomicInteger completed = new AtomicInteger(0);
+
+        Async.waitFor(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                for (int i = 0; i < operationCount; i++) {
+                    for (int k = 0; k < keyCount; k++) {
+                        final int key = k;
+                        final int index = i;
+                        scheduler.schedule(key, new Operation<Success>() {
+
+                            @Override
+                            public void apply(final ValueCallback<Success> callback) {
+                                if (!busy[key].compareAndSet(false, true)) {
+                                    callback.onFailure(new Exception("Operations ran concurrently."));
+                                    return;
+                                }
+                                if (next[key].getAndIncrement() != index) {
+                                    callback.onFailure(new Exception("Operations ran out of order."));
+                                    return;
+                                }
+                                busy[key].set(false);
+                                callback.onSuccess(Success.INSTANCE);
+                            }
+
+                        }, new ValueCallback<Success>() {
+
+                            @Override
+                            public void onFailure(final Throwable t) {
+                                callback.onFailure(t);
+                            }
+
+                            @Override
+                            public void onSuccess(final Success value) {
+                                if (completed.incrementAndGet() == keyCount * operationCount) {
+                                    callback.onSuccess(value);
+                                }
+                            }
+                        });
+                    }
+                }
+            }
+        });
+
+        Async.waitFor(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                scheduler.shutdown(callback);
+            }
+        });
+
+        Assert.assertEquals(0, scheduler.activeLaneCount());
+    }
+
+    @Test
+    public void test_batch_size_must_be_positive() {
+        try {
+            new KeyedSequentialScheduler<Integer>(ConcurrencyJre.create()).setBatchSize(0);
+            Assert.fail("Batch size should have been rejected.");
+        } catch (final IllegalArgumentException e) {
+            // as expected
+        }
+    }
+
+    /**
+     * Test that an operation for a new key is rejected once the scheduler shut
+     * down and leaves no lane behind.
+     */
+    @Test
+    public void test_new_lane_rejected_after_shutdown() {
+        final KeyedSequentialScheduler<Integer> scheduler = new KeyedSequentialScheduler<Integer>(
+                ConcurrencyJre.create());
+
+        Async.waitFor(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                scheduler.shutdown(callback);
+            }
+        });
+
+        try {
+            scheduler.schedule(1, new Operation<Success>() {
+
+                @Override
+                public void apply(final ValueCallback<Success> callback) {
+                    callback.onSuccess(Success.INSTANCE);
+                }
+            }, new ValueCallback<Success>() {
+
+                @Override
+                public void onFailure(final Throwable t) {
+                }
+
+                @Override
+                public void onSuccess(final Success value) {
+                }
+            });
+            Assert.fail("Operation should have been rejected.");
+        } catch (final RejectedOperationException e) {
+            // as expected
+        }
+
+        Assert.assertEquals(0, scheduler.activeLaneCount());
+    }
+
+    @Test
+    public void test_inline_callback_does_not_block_other_timeouts() throws Exception {
+        final KeyedSequentialScheduler<Integer> scheduler = new KeyedSequentialScheduler<Integer>(
+                ConcurrencyJre.create());
+        scheduler.setTimeout(20);
+        scheduler.setCallbackDispatcher(CallbackDispatchers.inline());
+
+        final CountDownLatch secondFailed = new CountDownLatch(1);
+        final CountDownLatch firstReleased = new CountDownLatch(1);
+        scheduler.schedule(1, new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                // never completes
+            }
+        }, new ValueCallback<Success>() {
+
+            @Override
+            public void onFailure(final Throwable t) {
+                try {
+                    if (secondFailed.await(2, TimeUnit.SECONDS)) {
+                        firstReleased.countDown();
+                    }
+                } catch (final InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            @Override
+            public void onSuccess(final Success value) {
+            }
+        });
+
+        scheduler.schedule(2, new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                // never completes
+            }
+        }, new ValueCallback<Success>() {
+
+            @Override
+            public void onFailure(final Throwable t) {
+                secondFailed.countDown();
+            }
+
+            @Override
+            public void onSuccess(final Success value) {
+            }
+        });
+
+        Assert.assertTrue("Timeouts should not wait for callbacks.", firstReleased.await(5, TimeUnit.SECONDS));
+    }
+
+}
@@ -0,0 +1,124 @@
+package delight.scheduler.tests;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.ObjectName;
+
+import delight.async.Operation;
+import delight.async.callbacks.ValueCallback;
+import delight.async.jre.Async;
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.functional.Success;
+import delight.scheduler.LatencyHistogram;
+import delight.scheduler.MetricsRecorder;
+import delight.scheduler.SequentialOperationScheduler;
+import delight.scheduler.jre.JmxMetrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestMetrics {
+
+    @Test
+    public void test_scheduler_metrics() throws Exception {
+        final SequentialOperationScheduler scheduler = new SequentialOperationScheduler(this,
+                ConcurrencyJre.create());
+        final MetricsRecorder recorder = new MetricsRecorder();
+        scheduler.setMetricsListener(recorder);
+
+        final int operationCount = 10;
+        final AtomicInteger completed = new AtomicInteger(0);
+
+        Async.waitFor(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                for (int i = 0; i < operationCount; i++) {
+                    scheduler.schedule(new Operation<Success>() {
+
+                        @Override
+                        public void apply(final ValueCallback<Success> callback) {
+                            callback.onSuccess(Success.INSTANCE);
+                        }
+                    }, new ValueCallback<Success>() {
+
+                        @Override
+                        public void onFailure(final Throwable t) {
+                            callback.onFailure(t);
+                        }
+
+                        @Override
+                        public void onSuccess(final Success value) {
+                            if (completed.incrementAndGet() == operationCount) {
+                                callback.onSuccess(value);
+                            }
+                        }
+                    });
+                }
+            }
+        });
+
+        Assert.assertEquals(operationCount, recorder.getEnqueued());
+        Assert.assertEquals(operationCount, recorder.getCompleted());
+        Assert.assertEquals(operationCount, recorder.getQueueWait().getCount());
+        Assert.assertEquals(operationCount, recorder.getExecutionTime().getCount());
+        Assert.assertEquals(operationCount, recorder.getCallbackLag().getCount());
+
+        final ObjectName name = JmxMetrics.register("test", recorder);
+        try {
+            Assert.assertEquals((long) operationCount,
+                    ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Completed"));
+        } finally {
+            JmxMetrics.unregister(name);
+        }
+    }
+
+    @Test
+    public void test_histogram_precision() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(1000000, histogram.getMax());
+
+        final long median = histogram.getValueAtPercentile(50);
+        Assert.assertTrue(median >= 500000 && median < 500000 * 17 / 16);
+    }
+
+    @Test
+    public void test_histogram_records_concurrently() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final int threadCount = 4;
+        final int perThread = 100000;
+
+        final Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        histogram.record(i * threadCount + offset);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        final long total = (long) threadCount * perThread;
+        Assert.assertEquals(total, histogram.getCount());
+        Assert.assertEquals(total - 1, histogram.getMax());
+        Assert.assertEquals((total - 1) / 2, histogram.getMean());
+
+        histogram.reset();
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getMax());
+    }
+
+}
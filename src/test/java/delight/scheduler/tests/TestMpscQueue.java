@@ -0,0 +1,103 @@
+package delight.scheduler.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import delight.async.Operation;
+import delight.async.callbacks.ValueCallback;
+import delight.async.jre.Async;
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.functional.Success;
+import delight.scheduler.SequentialOperationScheduler;
+import delight.scheduler.jre.MpscQueue;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestMpscQueue {
+
+    /**
+     * Test that items offered concurrently are all received, in order per
+     * producer.
+     */
+    @Test
+    public void test_concurrent_producers() throws Exception {
+        final MpscQueue<int[]> queue = new MpscQueue<int[]>();
+
+        final int producerCount = 4;
+        final int itemCount = 10000;
+
+        final List<Thread> producers = new ArrayList<Thread>();
+        for (int p = 0; p < producerCount; p++) {
+            final int producer = p;
+            final Thread thread = new Thread() {
+
+                @Override
+                public void run() {
+                    for (int i = 0; i < itemCount; i++) {
+                        queue.offer(new int[] { producer, i });
+                    }
+                }
+
+            };
+            producers.add(thread);
+            thread.start();
+        }
+
+        final int[] next = new int[producerCount];
+        int received = 0;
+        while (received < producerCount * itemCount) {
+            final boolean empty = queue.isEmpty();
+            final int[] item = queue.poll();
+            if (!empty) {
+                // only this thread takes items, so they cannot vanish
+                Assert.assertNotNull(item);
+            }
+            if (item == null) {
+                continue;
+            }
+            Assert.assertEquals(next[item[0]], item[1]);
+            next[item[0]]++;
+            received++;
+        }
+
+        for (final Thread thread : producers) {
+            thread.join();
+        }
+
+        Assert.assertEquals(0, queue.size());
+        Assert.assertTrue(queue.isEmpty());
+        Assert.assertNull(queue.poll());
+    }
+
+    @Test
+    public void test_scheduler_with_mpsc_queue() {
+        final SequentialOperationScheduler scheduler = new SequentialOperationScheduler(this,
+                ConcurrencyJre.create(), MpscQueue.factory());
+        scheduler.setEnforceOwnThread(true);
+
+        final String result = Async.waitFor(new Operation<String>() {
+
+            @Override
+            public void apply(final ValueCallback<String> callback) {
+                scheduler.schedule(new Operation<String>() {
+
+                    @Override
+                    public void apply(final ValueCallback<String> callback) {
+                        callback.onSuccess("done");
+                    }
+                }, callback);
+            }
+        });
+        Assert.assertEquals("done", result);
+
+        Async.waitFor(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                scheduler.shutdown(callback);
+            }
+        });
+    }
+
+}
@@ -0,0 +1,115 @@
+package delight.scheduler.tests;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import delight.async.Operation;
+import delight.async.callbacks.ValueCallback;
+import delight.async.jre.Async;
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.functional.Success;
+import delight.scheduler.ParallelRequestTimeEnforcer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestParallelRequestTimeEnforcer {
+
+    @Test
+    public void test_timeout_without_further_requests() throws Exception {
+        final ParallelRequestTimeEnforcer enforcer = new ParallelRequestTimeEnforcer(20, ConcurrencyJre.create());
+
+        Async.waitFor(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                enforcer.perform(new Operation<Success>() {
+
+                    @Override
+                    public void apply(final ValueCallback<Success> callback) {
+                        callback.onSuccess(Success.INSTANCE);
+                    }
+                }, callback);
+            }
+        });
+
+        final CountDownLatch failed = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        enforcer.perform(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                // never completes
+            }
+        }, new ValueCallback<Success>() {
+
+            @Override
+            public void onFailure(final Throwable t) {
+                failure.set(t);
+                failed.countDown();
+            }
+
+            @Override
+            public void onSuccess(final Success value) {
+            }
+        });
+
+        Assert.assertTrue("Operation should have timed out.", failed.await(2, TimeUnit.SECONDS));
+        Assert.assertEquals(Exception.class, failure.get().getClass());
+        Assert.assertTrue(failure.get().getMessage().contains("has timed out"));
+    }
+
+    @Test
+    public void test_blocked_callback_does_not_delay_other_timeouts() throws Exception {
+        final ParallelRequestTimeEnforcer enforcer = new ParallelRequestTimeEnforcer(20, ConcurrencyJre.create());
+
+        final CountDownLatch secondFailed = new CountDownLatch(1);
+        final CountDownLatch firstReleased = new CountDownLatch(1);
+        enforcer.perform(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                // never completes
+            }
+        }, new ValueCallback<Success>() {
+
+            @Override
+            public void onFailure(final Throwable t) {
+                try {
+                    // blocks the timer if the failure is reported from it
+                    if (secondFailed.await(2, TimeUnit.SECONDS)) {
+                        firstReleased.countDown();
+                    }
+                } catch (final InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            @Override
+            public void onSuccess(final Success value) {
+            }
+        });
+
+        enforcer.perform(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                // never completes
+            }
+        }, new ValueCallback<Success>() {
+
+            @Override
+            public void onFailure(final Throwable t) {
+                secondFailed.countDown();
+            }
+
+            @Override
+            public void onSuccess(final Success value) {
+            }
+        });
+
+        Assert.assertTrue("Timeouts should not wait for callbacks.", firstReleased.await(5, TimeUnit.SECONDS));
+    }
+
+}
@@ -0,0 +1,97 @@
+package delight.scheduler.tests;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import delight.async.Operation;
+import delight.async.callbacks.ValueCallback;
+import delight.async.jre.Async;
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.functional.Success;
+import delight.scheduler.PartitionMetrics;
+import delight.scheduler.PartitionedQueueWorker;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestPartitionedQueueWorker {
+
+    /**
+     * Test that items of each key are processed in order, one partition at a
+     * time, and that all items are accounted for in the metrics.
+     */
+    @Test
+    public void test_order_per_key() {
+        final int partitionCount = 4;
+        final int keyCount = 16;
+        final int itemCount = 1000;
+
+        final AtomicBoolean[] busy = new AtomicBoolean[partitionCount];
+        for (int p = 0; p < partitionCount; p++) {
+            busy[p] = new AtomicBoolean(false);
+        }
+        final int[] next = new int[keyCount];
+        final AtomicInteger processed = new AtomicInteger(0);
+        final AtomicBoolean failed = new AtomicBoolean(false);
+
+        final ValueCallback<?>[] whenDone = new ValueCallback<?>[1];
+
+        final PartitionedQueueWorker<int[]> worker = new PartitionedQueueWorker<int[]>(this, partitionCount,
+                ConcurrencyJre.create()) {
+
+            @Override
+            protected Object partitionKey(final int[] item) {
+                return item[0];
+            }
+
+            @Override
+            protected void processItems(final int partition, final List<int[]> items) {
+                if (!busy[partition].compareAndSet(false, true)) {
+                    failed.set(true);
+                }
+                for (final int[] item : items) {
+                    if (next[item[0]]++ != item[1]) {
+                        failed.set(true);
+                    }
+                }
+                busy[partition].set(false);
+                if (processed.addAndGet(items.size()) == itemCount * keyCount) {
+                    whenDone[0].onSuccess(null);
+                }
+            }
+        };
+
+        Async.waitFor(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                whenDone[0] = callback;
+                for (int i = 0; i < itemCount; i++) {
+                    for (int k = 0; k < keyCount; k++) {
+                        worker.offer(new int[] { k, i });
+                    }
+                }
+            }
+        });
+
+        Assert.assertFalse(failed.get());
+
+        long offered = 0;
+        for (final PartitionMetrics metrics : worker.getMetrics()) {
+            offered += metrics.getOffered();
+            Assert.assertEquals(0, metrics.getBacklog());
+        }
+        Assert.assertEquals(itemCount * keyCount, offered);
+        Assert.assertTrue(worker.getSkew() >= 1.0);
+
+        Async.waitFor(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                worker.shutdown(callback);
+            }
+        });
+    }
+
+}
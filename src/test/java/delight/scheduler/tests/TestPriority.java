@@ -0,0 +1,90 @@
+package delight.scheduler.tests;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import delight.async.Operation;
+import delight.async.callbacks.ValueCallback;
+import delight.async.jre.Async;
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.functional.Success;
+import delight.scheduler.Priority;
+import delight.scheduler.SequentialOperationScheduler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestPriority {
+
+    private static void schedule(final SequentialOperationScheduler scheduler, final Priority priority,
+            final List<String> order, final ValueCallback<Success> whenLast) {
+        scheduler.schedule(priority, new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                order.add(priority.name());
+                callback.onSuccess(Success.INSTANCE);
+            }
+        }, new ValueCallback<Success>() {
+
+            @Override
+            public void onFailure(final Throwable t) {
+                whenLast.onFailure(t);
+            }
+
+            @Override
+            public void onSuccess(final Success value) {
+                if (order.size() == 3) {
+                    whenLast.onSuccess(value);
+                }
+            }
+        });
+    }
+
+    private List<String> runSuspended(final SequentialOperationScheduler scheduler, final long delayBeforeHigh) {
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+        scheduler.suspend();
+        Async.waitFor(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                schedule(scheduler, Priority.LOW, order, callback);
+                schedule(scheduler, Priority.NORMAL, order, callback);
+                try {
+                    Thread.sleep(delayBeforeHigh);
+                } catch (final InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                schedule(scheduler, Priority.HIGH, order, callback);
+                scheduler.resume();
+            }
+        });
+        return order;
+    }
+
+    @Test
+    public void test_higher_priority_first() {
+        final SequentialOperationScheduler scheduler = new SequentialOperationScheduler(this,
+                ConcurrencyJre.create());
+
+        final List<String> order = runSuspended(scheduler, 0);
+        Assert.assertEquals("[HIGH, NORMAL, LOW]", order.toString());
+
+        Assert.assertEquals(1, scheduler.getMetrics(Priority.LOW).getDequeued());
+        Assert.assertEquals(0, scheduler.getMetrics(Priority.LOW).getDepth());
+    }
+
+    @Test
+    public void test_aging() {
+        final SequentialOperationScheduler scheduler = new SequentialOperationScheduler(this,
+                ConcurrencyJre.create());
+        scheduler.setAgingThreshold(20);
+
+        final List<String> order = runSuspended(scheduler, 40);
+        Assert.assertEquals("[LOW, NORMAL, HIGH]", order.toString());
+        Assert.assertTrue(scheduler.getMetrics(Priority.LOW).getMaxWaitTime() >= 40);
+    }
+
+}
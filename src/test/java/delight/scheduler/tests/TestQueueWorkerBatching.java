@@ -0,0 +1,173 @@
+package delight.scheduler.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import delight.async.Operation;
+import delight.async.callbacks.ValueCallback;
+import delight.async.jre.Async;
+import delight.concurrency.Concurrency;
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.functional.Success;
+import delight.scheduler.SingleInstanceQueueWorker;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestQueueWorkerBatching {
+
+    /**
+     * Test that items are passed on in order and in batches no larger than
+     * the maximum batch size.
+     */
+    @Test
+    public void test_bounded_batches() {
+        final Concurrency concurrency = ConcurrencyJre.create();
+
+        final int itemCount = 95;
+        final int maxBatchSize = 10;
+
+        final List<Integer> processed = new ArrayList<Integer>();
+        final List<Integer> batchSizes = new ArrayList<Integer>();
+        final List<ValueCallback<Success>> whenDone = new ArrayList<ValueCallback<Success>>();
+
+        final SingleInstanceQueueWorker<Integer> worker = new SingleInstanceQueueWorker<Integer>(this,
+                concurrency.newCollection().newThreadSafeQueue(Integer.class), concurrency) {
+
+            @Override
+            protected void processItems(final List<Integer> items) {
+                batchSizes.add(items.size());
+                processed.addAll(items);
+                if (processed.size() == itemCount) {
+                    whenDone.get(0).onSuccess(Success.INSTANCE);
+                }
+            }
+        };
+        worker.setBatching(maxBatchSize, 50);
+
+        Async.waitFor(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                whenDone.add(callback);
+                for (int i = 0; i < itemCount; i++) {
+                    worker.offer(i);
+                }
+            }
+        });
+
+        for (int i = 0; i < itemCount; i++) {
+            Assert.assertEquals(i, processed.get(i).intValue());
+        }
+        for (final Integer size : batchSizes) {
+            Assert.assertTrue(size <= maxBatchSize);
+        }
+        // offers while a drain is pending do not schedule further drains
+        Assert.assertTrue(worker.getThread().scheduledCount() <= 1);
+
+        Async.waitFor(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                worker.shutdown(callback);
+            }
+        });
+    }
+
+    /**
+     * Test that a subclass can consume items straight from the queue.
+     */
+    @Test
+    public void test_drain_batch_hook() {
+        final Concurrency concurrency = ConcurrencyJre.create();
+
+        final int itemCount = 50;
+        final List<Integer> processed = new ArrayList<Integer>();
+        final List<ValueCallback<Success>> whenDone = new ArrayList<ValueCallback<Success>>();
+
+        final SingleInstanceQueueWorker<Integer> worker = new SingleInstanceQueueWorker<Integer>(this,
+                concurrency.newCollection().newThreadSafeQueue(Integer.class), concurrency) {
+
+            @Override
+            protected int drainBatch(final int maxItems) {
+                int taken = 0;
+                Integer next;
+                while (taken < maxItems && (next = poll()) != null) {
+                    taken++;
+                    processed.add(next);
+                    if (processed.size() == itemCount) {
+                        whenDone.get(0).onSuccess(Success.INSTANCE);
+                    }
+                }
+                return taken;
+            }
+
+            @Override
+            protected void processItems(final List<Integer> items) {
+                Assert.fail("Items should be consumed by drainBatch.");
+            }
+        };
+        worker.setBatching(8, 0);
+
+        Async.waitFor(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                whenDone.add(callback);
+                for (int i = 0; i < itemCount; i++) {
+                    worker.offer(i);
+                }
+            }
+        });
+
+        for (int i = 0; i < itemCount; i++) {
+            Assert.assertEquals(i, processed.get(i).intValue());
+        }
+    }
+
+    /**
+     * Test that a full batch is not processed by the thread offering its last
+     * item.
+     */
+    @Test
+    public void test_full_batch_not_processed_by_producer() throws Exception {
+        final Concurrency concurrency = ConcurrencyJre.create();
+
+        final AtomicReference<Thread> processingThread = new AtomicReference<Thread>();
+        final CountDownLatch processed = new CountDownLatch(1);
+
+        final SingleInstanceQueueWorker<Integer> worker = new SingleInstanceQueueWorker<Integer>(this,
+                concurrency.newCollection().newThreadSafeQueue(Integer.class), concurrency) {
+
+            @Override
+            protected void processItems(final List<Integer> items) {
+                processingThread.set(Thread.currentThread());
+                processed.countDown();
+            }
+        };
+        // the linger time never ends the wait in this test
+        worker.setBatching(4, 60000);
+
+        worker.offer(0);
+        // let the drain start waiting for the batch to fill up
+        Thread.sleep(100);
+        for (int i = 1; i < 4; i++) {
+            worker.offer(i);
+        }
+
+        Assert.assertTrue(processed.await(5, TimeUnit.SECONDS));
+        Assert.assertFalse(Thread.currentThread() == processingThread.get());
+
+        Async.waitFor(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                worker.shutdown(callback);
+            }
+        });
+    }
+
+}
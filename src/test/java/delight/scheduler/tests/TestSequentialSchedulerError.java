@@ -7,6 +7,7 @@ import delight.async.jre.Async;
 import delight.concurrency.jre.ConcurrencyJre;
 import delight.functional.Closure;
 import delight.functional.Success;
+import delight.scheduler.CallbackDispatchers;
 import delight.scheduler.SequentialOperationScheduler;
 
 import org.junit.Assert;
@@ -150,4 +151,61 @@ public class TestSequentialSchedulerError {
 
     }
 
+    /**
+     * Test that an error in a callback called inline does not block the
+     * scheduler.
+     */
+    @Test
+    public void test_error_in_inline_callback() {
+
+        final SequentialOperationScheduler scheduler = new SequentialOperationScheduler(this, ConcurrencyJre.create());
+        scheduler.setCallbackDispatcher(CallbackDispatchers.inline());
+
+        scheduler.schedule(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                callback.onSuccess(Success.INSTANCE);
+            }
+
+        }, new ValueCallback<Success>() {
+
+            @Override
+            public void onFailure(final Throwable t) {
+            }
+
+            @Override
+            public void onSuccess(final Success value) {
+                throw new RuntimeException("Expected Error!");
+            }
+        });
+
+        Async.waitFor(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+
+                scheduler.schedule(new Operation<Success>() {
+
+                    @Override
+                    public void apply(final ValueCallback<Success> callback) {
+                        callback.onSuccess(Success.INSTANCE);
+                    }
+
+                }, callback);
+
+            }
+
+        });
+
+        Async.waitFor(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                scheduler.shutdown(callback);
+            }
+        });
+
+    }
+
 }
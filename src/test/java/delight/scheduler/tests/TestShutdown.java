@@ -0,0 +1,149 @@
+package delight.scheduler.tests;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import delight.async.Operation;
+import delight.async.callbacks.ValueCallback;
+import delight.async.jre.Async;
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.functional.Success;
+import delight.scheduler.OperationEntry;
+import delight.scheduler.RejectedOperationException;
+import delight.scheduler.SequentialOperationScheduler;
+import delight.scheduler.jre.ThreadInterrupter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestShutdown {
+
+    private static final Operation<Success> NOOP = new Operation<Success>() {
+
+        @Override
+        public void apply(final ValueCallback<Success> callback) {
+            callback.onSuccess(Success.INSTANCE);
+        }
+    };
+
+    private static ValueCallback<Success> rejectionCounter(final CountDownLatch rejected) {
+        return new ValueCallback<Success>() {
+
+            @Override
+            public void onFailure(final Throwable t) {
+                if (t instanceof RejectedOperationException) {
+                    rejected.countDown();
+                }
+            }
+
+            @Override
+            public void onSuccess(final Success value) {
+            }
+        };
+    }
+
+    @Test
+    public void test_shutdown_now_returns_queued_operations() {
+        final SequentialOperationScheduler scheduler = new SequentialOperationScheduler(this,
+                ConcurrencyJre.create());
+        scheduler.suspend();
+        for (int i = 0; i < 3; i++) {
+            scheduler.schedule(NOOP, rejectionCounter(new CountDownLatch(1)));
+        }
+
+        final List<OperationEntry<Object>> unexecuted = Async
+                .waitFor(new Operation<List<OperationEntry<Object>>>() {
+
+                    @Override
+                    public void apply(final ValueCallback<List<OperationEntry<Object>>> callback) {
+                        scheduler.shutdownNow(callback);
+                    }
+                });
+        Assert.assertEquals(3, unexecuted.size());
+        Assert.assertSame(NOOP, unexecuted.get(0).operation);
+
+        try {
+            scheduler.schedule(NOOP, rejectionCounter(new CountDownLatch(1)));
+            Assert.fail("Scheduler should reject operations once shut down.");
+        } catch (final RejectedOperationException e) {
+            // as expected
+        }
+
+        // shutting down again reports success right away
+        Async.waitFor(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                scheduler.shutdown(callback);
+            }
+        });
+    }
+
+    @Test
+    public void test_shutdown_now_after_completed_operation() {
+        final SequentialOperationScheduler scheduler = new SequentialOperationScheduler(this,
+                ConcurrencyJre.create());
+        scheduler.setRecycleEntries(true);
+
+        Async.waitFor(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                scheduler.schedule(NOOP, callback);
+            }
+        });
+
+        scheduler.suspend();
+        final CountDownLatch rejected = new CountDownLatch(1);
+        for (int i = 0; i < 2; i++) {
+            scheduler.schedule(NOOP, rejectionCounter(rejected));
+        }
+
+        final List<OperationEntry<Object>> unexecuted = Async
+                .waitFor(new Operation<List<OperationEntry<Object>>>() {
+
+                    @Override
+                    public void apply(final ValueCallback<List<OperationEntry<Object>>> callback) {
+                        scheduler.shutdownNow(callback);
+                    }
+                });
+        Assert.assertEquals(2, unexecuted.size());
+        // returned operations are not reported to their callbacks
+        Assert.assertEquals(1, rejected.getCount());
+    }
+
+    @Test
+    public void test_deadline_aborts_slow_operations() throws Exception {
+        final SequentialOperationScheduler scheduler = new SequentialOperationScheduler(this,
+                ConcurrencyJre.create());
+        scheduler.setEnforceOwnThread(true);
+        scheduler.setInterrupter(ThreadInterrupter.INSTANCE);
+
+        final CountDownLatch rejected = new CountDownLatch(2);
+        scheduler.schedule(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                try {
+                    Thread.sleep(2000);
+                } catch (final InterruptedException e) {
+                    // aborted
+                }
+            }
+        }, rejectionCounter(rejected));
+        scheduler.schedule(NOOP, rejectionCounter(rejected));
+
+        final long start = System.currentTimeMillis();
+        Async.waitFor(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                scheduler.shutdown(100, callback);
+            }
+        });
+        Assert.assertTrue(System.currentTimeMillis() - start < 1500);
+        Assert.assertTrue(rejected.await(1, TimeUnit.SECONDS));
+    }
+
+}
@@ -0,0 +1,59 @@
+package delight.scheduler.tests;
+
+import java.util.List;
+
+import delight.async.Operation;
+import delight.async.callbacks.ValueCallback;
+import delight.async.jre.Async;
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.scheduler.SequentialOperationScheduler;
+import delight.scheduler.SlowOperationReport;
+import delight.scheduler.jre.ThreadStackSampler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestSlowOperationWatchdog {
+
+    @Test
+    public void test_stack_of_slow_operation_is_sampled() {
+        final SequentialOperationScheduler scheduler = new SequentialOperationScheduler(this,
+                ConcurrencyJre.create());
+        scheduler.setEnforceOwnThread(true);
+        scheduler.setSlowOperationThreshold(50, ThreadStackSampler.INSTANCE);
+
+        final String result = Async.waitFor(new Operation<String>() {
+
+            @Override
+            public void apply(final ValueCallback<String> callback) {
+                scheduler.schedule(new Operation<String>() {
+
+                    @Override
+                    public void apply(final ValueCallback<String> callback) {
+                        try {
+                            Thread.sleep(300);
+                        } catch (final InterruptedException e) {
+                            callback.onFailure(e);
+                            return;
+                        }
+                        callback.onSuccess("done");
+                    }
+
+                    @Override
+                    public String toString() {
+                        return "sleeping-operation";
+                    }
+                }, callback);
+            }
+        });
+        Assert.assertEquals("done", result);
+
+        final List<SlowOperationReport> reports = scheduler.getSlowOperationReports();
+        Assert.assertEquals(1, reports.size());
+        final SlowOperationReport report = reports.get(0);
+        Assert.assertEquals("sleeping-operation", report.getOperation().toString());
+        Assert.assertTrue(report.getRunTime() >= 50);
+        Assert.assertTrue(report.getStack(), report.getStack().contains("sleep"));
+    }
+
+}
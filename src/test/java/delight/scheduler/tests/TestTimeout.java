@@ -1,14 +1,18 @@
 package delight.scheduler.tests;
 
-import delight.async.AsyncCommon;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
 import delight.async.Operation;
 import delight.async.callbacks.ValueCallback;
 import delight.async.jre.Async;
 import delight.concurrency.jre.ConcurrencyJre;
-import delight.functional.Closure;
 import delight.functional.Success;
+import delight.scheduler.CallbackDispatchers;
 import delight.scheduler.SequentialOperationScheduler;
 
+import org.junit.Assert;
 import org.junit.Test;
 
 public class TestTimeout {
@@ -36,13 +40,18 @@ public class TestTimeout {
                         callback.onSuccess(Success.INSTANCE);
                     }
 
-                }, AsyncCommon.embed(callback, new Closure<Success>() {
+                }, new ValueCallback<Success>() {
 
                     @Override
-                    public void apply(final Success o) {
+                    public void onSuccess(final Success value) {
+                        callback.onFailure(new Exception("Operation should have timed out."));
+                    }
 
+                    @Override
+                    public void onFailure(final Throwable t) {
+                        // as expected
                     }
-                }));
+                });
 
                 try {
                     Thread.sleep(300);
@@ -72,4 +81,111 @@ public class TestTimeout {
 
     }
 
+    /**
+     * Test that an operation which never completes times out even if no further
+     * operations are scheduled.
+     */
+    @Test
+    public void test_timeout_of_idle_scheduler() throws Exception {
+        final SequentialOperationScheduler scheduler = new SequentialOperationScheduler(this, ConcurrencyJre.create());
+        scheduler.setTimeout(10);
+        scheduler.setEnforceOwnThread(true);
+
+        final CountDownLatch failed = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        scheduler.schedule(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                // never completes
+            }
+
+        }, new ValueCallback<Success>() {
+
+            @Override
+            public void onFailure(final Throwable t) {
+                failure.set(t);
+                failed.countDown();
+            }
+
+            @Override
+            public void onSuccess(final Success value) {
+            }
+        });
+
+        Assert.assertTrue("Operation should have timed out.", failed.await(2, TimeUnit.SECONDS));
+        Assert.assertEquals("Operation timed out.", failure.get().getMessage());
+
+        Async.waitFor(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                scheduler.shutdown(callback);
+            }
+        });
+
+    }
+
+    /**
+     * Callbacks which are called inline must not block the timer shared with
+     * other schedulers.
+     */
+    @Test
+    public void test_inline_callback_does_not_block_other_timeouts() throws Exception {
+        final SequentialOperationScheduler first = new SequentialOperationScheduler(this, ConcurrencyJre.create());
+        first.setTimeout(20);
+        first.setCallbackDispatcher(CallbackDispatchers.inline());
+        final SequentialOperationScheduler second = new SequentialOperationScheduler(this, ConcurrencyJre.create());
+        second.setTimeout(20);
+        second.setCallbackDispatcher(CallbackDispatchers.inline());
+
+        final CountDownLatch secondFailed = new CountDownLatch(1);
+        final CountDownLatch firstReleased = new CountDownLatch(1);
+        first.schedule(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                // never completes
+            }
+
+        }, new ValueCallback<Success>() {
+
+            @Override
+            public void onFailure(final Throwable t) {
+                try {
+                    if (secondFailed.await(2, TimeUnit.SECONDS)) {
+                        firstReleased.countDown();
+                    }
+                } catch (final InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            @Override
+            public void onSuccess(final Success value) {
+            }
+        });
+
+        second.schedule(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                // never completes
+            }
+
+        }, new ValueCallback<Success>() {
+
+            @Override
+            public void onFailure(final Throwable t) {
+                secondFailed.countDown();
+            }
+
+            @Override
+            public void onSuccess(final Success value) {
+            }
+        });
+
+        Assert.assertTrue("Timeouts should not wait for callbacks.", firstReleased.await(5, TimeUnit.SECONDS));
+    }
+
 }
@@ -0,0 +1,156 @@
+package delight.scheduler.tests;
+
+import java.util.concurrent.CountDownLatch;
+
+import delight.async.Operation;
+import delight.async.callbacks.ValueCallback;
+import delight.async.jre.Async;
+import delight.concurrency.Concurrency;
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.functional.Success;
+import delight.scheduler.OverflowPolicy;
+import delight.scheduler.SequentialOperationScheduler;
+import delight.scheduler.TraceBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestTracing {
+
+    @Test
+    public void test_events_in_ring_buffer() {
+        final Concurrency concurrency = ConcurrencyJre.create();
+        final SequentialOperationScheduler scheduler = new SequentialOperationScheduler(this, concurrency);
+        final TraceBuffer buffer = new TraceBuffer(concurrency, 4);
+        scheduler.setTracer(buffer);
+
+        for (int i = 0; i < 2; i++) {
+            final String result = Async.waitFor(new Operation<String>() {
+
+                @Override
+                public void apply(final ValueCallback<String> callback) {
+                    scheduler.schedule(new Operation<String>() {
+
+                        @Override
+                        public void apply(final ValueCallback<String> callback) {
+                            callback.onSuccess("done");
+                        }
+
+                        @Override
+                        public String toString() {
+                            return "test-operation";
+                        }
+                    }, callback);
+                }
+            });
+            Assert.assertEquals("done", result);
+        }
+
+        // six events have been recorded, of which the last four are kept
+        final String[] lines = buffer.dump().split("\n");
+        Assert.assertEquals(4, lines.length);
+        Assert.assertTrue(lines[0].contains("COMPLETED"));
+        Assert.assertTrue(lines[1].contains("ENQUEUED"));
+        Assert.assertTrue(lines[3].contains("COMPLETED"));
+        Assert.assertTrue(lines[3].contains("test-operation"));
+    }
+
+    @Test
+    public void test_caller_runs_with_log_disabled() throws Exception {
+        final Concurrency concurrency = ConcurrencyJre.create();
+        final SequentialOperationScheduler scheduler = new SequentialOperationScheduler(this, concurrency);
+        final TraceBuffer buffer = new TraceBuffer(concurrency);
+        scheduler.setTracer(buffer);
+        // must not remove the tracer set above
+        scheduler.setEnableLog(false);
+        scheduler.setEnforceOwnThread(true);
+        scheduler.setCapacity(1, OverflowPolicy.CALLER_RUNS);
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch running = new CountDownLatch(1);
+        scheduler.schedule(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                running.countDown();
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                callback.onSuccess(Success.INSTANCE);
+            }
+        }, new ValueCallback<Success>() {
+
+            @Override
+            public void onFailure(final Throwable t) {
+            }
+
+            @Override
+            public void onSuccess(final Success value) {
+            }
+        });
+        running.await();
+
+        // fills the capacity, so that the next operation is run by the caller
+        scheduler.schedule(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                callback.onSuccess(Success.INSTANCE);
+            }
+        }, new ValueCallback<Success>() {
+
+            @Override
+            public void onFailure(final Throwable t) {
+            }
+
+            @Override
+            public void onSuccess(final Success value) {
+            }
+        });
+
+        final String result = Async.waitFor(new Operation<String>() {
+
+            @Override
+            public void apply(final ValueCallback<String> callback) {
+                scheduler.schedule(new Operation<String>() {
+
+                    @Override
+                    public void apply(final ValueCallback<String> callback) {
+                        callback.onSuccess("done");
+                    }
+
+                    @Override
+                    public String toString() {
+                        return "caller-operation";
+                    }
+                }, callback);
+            }
+        });
+        Assert.assertEquals("done", result);
+
+        final String dump = buffer.dump();
+        Assert.assertTrue(dump, hasEvent(dump, "STARTED", "caller-operation"));
+        Assert.assertTrue(dump, hasEvent(dump, "COMPLETED", "caller-operation"));
+
+        release.countDown();
+        Async.waitFor(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                scheduler.shutdown(callback);
+            }
+        });
+    }
+
+    private static boolean hasEvent(final String dump, final String event, final String operation) {
+        for (final String line : dump.split("\n")) {
+            if (line.contains(" " + event + " ") && line.endsWith(": " + operation)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,170 @@
+package delight.scheduler.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import delight.async.Operation;
+import delight.async.callbacks.ValueCallback;
+import delight.async.jre.Async;
+import delight.concurrency.Concurrency;
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.functional.Success;
+import delight.scheduler.CallbackDispatchers;
+import delight.scheduler.SequentialOperationScheduler;
+import delight.scheduler.WorkerPool;
+import delight.scheduler.WorkerPools;
+import delight.scheduler.jre.VirtualThreads;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestWorkerPool {
+
+    /**
+     * Test that schedulers sharing a pool still run their operations in order
+     * and one at a time.
+     */
+    @Test
+    public void test_schedulers_sharing_pool() {
+        final Concurrency concurrency = ConcurrencyJre.create();
+        final WorkerPool pool = WorkerPools.fixed(concurrency, 2);
+
+        final int schedulerCount = 50;
+        final int operationCount = 100;
+
+        final List<SequentialOperationScheduler> schedulers = new ArrayList<SequentialOperationScheduler>();
+        for (int i = 0; i < schedulerCount; i++) {
+            final SequentialOperationScheduler scheduler = new SequentialOperationScheduler(this, concurrency);
+            scheduler.setEnforceOwnThread(true);
+            scheduler.setWorkerPool(pool);
+            scheduler.setCallbackDispatcher(CallbackDispatchers.shared(concurrency));
+            schedulers.add(scheduler);
+        }
+
+        final AtomicInteger completed = new AtomicInteger(0);
+
+        Async.waitFor(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                for (final SequentialOperationScheduler scheduler : schedulers) {
+                    final AtomicBoolean busy = new AtomicBoolean(false);
+                    final AtomicInteger next = new AtomicInteger(0);
+
+                    for (int i = 0; i < operationCount; i++) {
+                        final int index = i;
+                        scheduler.schedule(new Operation<Success>() {
+
+                            @Override
+                            public void apply(final ValueCallback<Success> callback) {
+                                if (!busy.compareAndSet(false, true)) {
+                                    callback.onFailure(new Exception("Operations ran concurrently."));
+                                    return;
+                                }
+                                if (next.getAndIncrement() != index) {
+                                    callback.onFailure(new Exception("Operations ran out of order."));
+                                    return;
+                                }
+                                busy.set(false);
+                                callback.onSuccess(Success.INSTANCE);
+                            }
+
+                        }, new ValueCallback<Success>() {
+
+                            @Override
+                            public void onFailure(final Throwable t) {
+                                callback.onFailure(t);
+                            }
+
+                            @Override
+                            public void onSuccess(final Success value) {
+                                if (completed.incrementAndGet() == schedulerCount * operationCount) {
+                                    callback.onSuccess(value);
+                                }
+                            }
+                        });
+                    }
+                }
+            }
+        });
+
+        Assert.assertEquals(schedulerCount * operationCount, completed.get());
+
+        for (final SequentialOperationScheduler scheduler : schedulers) {
+            Async.waitFor(new Operation<Success>() {
+
+                @Override
+                public void apply(final ValueCallback<Success> callback) {
+                    scheduler.shutdown(callback);
+                }
+            });
+        }
+    }
+
+    /**
+     * Test that blocking operations of different schedulers on virtual threads
+     * (or their own threads if these are not supported) do not block each
+     * other.
+     */
+    @Test
+    public void test_blocking_operations_on_virtual_threads() {
+        final Concurrency concurrency = ConcurrencyJre.create();
+
+        final int schedulerCount = 4;
+        final List<SequentialOperationScheduler> schedulers = new ArrayList<SequentialOperationScheduler>();
+        for (int i = 0; i < schedulerCount; i++) {
+            final SequentialOperationScheduler scheduler = new SequentialOperationScheduler(this, concurrency);
+            Assert.assertEquals(VirtualThreads.isSupported(), VirtualThreads.configure(scheduler));
+            schedulers.add(scheduler);
+        }
+
+        final AtomicInteger completed = new AtomicInteger(0);
+        Async.waitFor(new Operation<Success>() {
+
+            @Override
+            public void apply(final ValueCallback<Success> callback) {
+                for (final SequentialOperationScheduler scheduler : schedulers) {
+                    scheduler.schedule(new Operation<Success>() {
+
+                        @Override
+                        public void apply(final ValueCallback<Success> callback) {
+                            try {
+                                Thread.sleep(50);
+                            } catch (final InterruptedException e) {
+                                throw new RuntimeException(e);
+                            }
+                            callback.onSuccess(Success.INSTANCE);
+                        }
+
+                    }, new ValueCallback<Success>() {
+
+                        @Override
+                        public void onFailure(final Throwable t) {
+                            callback.onFailure(t);
+                        }
+
+                        @Override
+                        public void onSuccess(final Success value) {
+                            if (completed.incrementAndGet() == schedulerCount) {
+                                callback.onSuccess(value);
+                            }
+                        }
+                    });
+                }
+            }
+        });
+
+        for (final SequentialOperationScheduler scheduler : schedulers) {
+            Async.waitFor(new Operation<Success>() {
+
+                @Override
+                public void apply(final ValueCallback<Success> callback) {
+                    scheduler.shutdown(callback);
+                }
+            });
+        }
+    }
+
+}